@@ -0,0 +1,62 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Random;
+
+/** data and configurations shared by the benchmarks */
+class BenchData {
+    static final double XMIN = 0.0;
+    static final double XMAX = 1.0;
+
+    /** n noisy samples of a sigmoid over [XMIN, XMAX], returned as { x, y } */
+    static double[][] sigmoid(int n, long seed) {
+        Random rng = new Random(seed);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = XMIN + (XMAX - XMIN) * rng.nextDouble();
+            y[j] = Math.tanh(8.0 * (x[j] - 0.5)) + 0.2 * rng.nextGaussian();
+        }
+        return new double[][] { x, y };
+    }
+
+    /**
+     * An interpolator with m intervals over [XMIN, XMAX] and one kind of constraint:
+     * "none", "equality", "gradient" or "inequality".
+     */
+    static MonotonicSplineInterpolator interpolator(int m, String constraints) {
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setM(m);
+        interpolator.setBounds(XMIN, XMAX);
+        switch (constraints) {
+            case "none":
+                break;
+            case "equality":
+                interpolator.addEqualityConstraint(XMIN, -1.0);
+                interpolator.addEqualityConstraint(XMAX, 1.0);
+                break;
+            case "gradient":
+                interpolator.addGradientEqualityConstraint(0.5, 8.0);
+                break;
+            case "inequality":
+                interpolator.addGreaterThanConstraint(XMIN, -1.2);
+                interpolator.addLessThanConstraint(XMAX, 1.2);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown constraints: " + constraints);
+        }
+        return interpolator;
+    }
+}
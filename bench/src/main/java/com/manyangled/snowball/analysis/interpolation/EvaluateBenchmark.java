@@ -0,0 +1,132 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+/**
+ * Evaluation throughput of a fitted spline, in its different forms. Scores are per evaluated point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateBenchmark {
+    static final int POINTS = 1024;
+
+    @Param({"16", "256"})
+    public int m;
+
+    private double[] xs;
+    private double[] ys;
+    private double[] sorted;
+    private double[] out;
+    private PolynomialSplineFunction psf;
+    private MonotonicSplineFunction function;
+    private MonotonicSplineTable table;
+    private MonotonicSplineView view;
+
+    @Setup
+    public void setup() {
+        double[][] d = BenchData.sigmoid(Math.max(10000, 10 * m), 7L);
+        MonotonicSplineFit fit = BenchData.interpolator(m, "none").fit(d[0], d[1]);
+        psf = fit.toPolynomialSplineFunction();
+        function = fit.toFunction();
+        table = MonotonicSplineTable.builder().setSize(4096).build(function);
+        view = MonotonicSplineFormat.view(ByteBuffer.wrap(MonotonicSplineFormat.toBytes(fit)));
+        Random rng = new Random(11);
+        xs = new double[POINTS];
+        for (int k = 0; k < POINTS; ++k) xs[k] = BenchData.XMIN + (BenchData.XMAX - BenchData.XMIN) * rng.nextDouble();
+        ys = new double[POINTS];
+        for (int k = 0; k < POINTS; ++k)
+            ys[k] = function.getYMin() + (function.getYMax() - function.getYMin()) * rng.nextDouble();
+        sorted = xs.clone();
+        Arrays.sort(sorted);
+        out = new double[POINTS];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double polynomialSplineFunction() {
+        double s = 0.0;
+        for (int k = 0; k < POINTS; ++k) s += psf.value(xs[k]);
+        return s;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double monotonicSplineFunction() {
+        double s = 0.0;
+        for (int k = 0; k < POINTS; ++k) s += function.value(xs[k]);
+        return s;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] bulk() {
+        function.value(xs, out);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] bulkSorted() {
+        function.valueSorted(sorted, out);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double inverse() {
+        double s = 0.0;
+        for (int k = 0; k < POINTS; ++k) s += function.inverse(ys[k]);
+        return s;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double table() {
+        double s = 0.0;
+        for (int k = 0; k < POINTS; ++k) s += table.value(xs[k]);
+        return s;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double view() {
+        double s = 0.0;
+        for (int k = 0; k < POINTS; ++k) s += view.value(xs[k]);
+        return s;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+/**
+ * End to end fitting with {@link MonotonicSplineInterpolator#interpolate(double[], double[])}, across data
+ * sizes, numbers of intervals and kinds of constraint. Larger numbers of intervals are covered by
+ * {@link InterpolateLargeMBenchmark}, since a fit needs at least (m + 3) data points.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpolateBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int n;
+
+    @Param({"4", "16", "64"})
+    public int m;
+
+    @Param({"none", "equality", "gradient", "inequality"})
+    public String constraints;
+
+    private double[] x;
+    private double[] y;
+    private MonotonicSplineInterpolator interpolator;
+
+    @Setup
+    public void setup() {
+        double[][] d = BenchData.sigmoid(n, 7L);
+        x = d[0];
+        y = d[1];
+        interpolator = BenchData.interpolator(m, constraints);
+    }
+
+    @Benchmark
+    public PolynomialSplineFunction interpolate() {
+        return interpolator.interpolate(x, y);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+/**
+ * End to end fitting with many spline intervals, where the solver dominates the cost. A single fit takes
+ * seconds with m = 256 and minutes with m = 1000, so each iteration times one fit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 2)
+@Fork(1)
+public class InterpolateLargeMBenchmark {
+    @Param({"10000", "1000000"})
+    public int n;
+
+    @Param({"256", "1000"})
+    public int m;
+
+    private double[] x;
+    private double[] y;
+    private MonotonicSplineInterpolator interpolator;
+
+    @Setup
+    public void setup() {
+        double[][] d = BenchData.sigmoid(n, 7L);
+        x = d[0];
+        y = d[1];
+        interpolator = BenchData.interpolator(m, "none");
+    }
+
+    @Benchmark
+    public PolynomialSplineFunction interpolate() {
+        return interpolator.interpolate(x, y);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+
+import com.manyangled.gibbous.optim.convex.BarrierOptimizer;
+import com.manyangled.gibbous.optim.convex.ConvexOptimizer;
+import com.manyangled.gibbous.optim.convex.LinearEqualityConstraint;
+import com.manyangled.gibbous.optim.convex.LinearInequalityConstraint;
+import com.manyangled.gibbous.optim.convex.QuadraticFunction;
+
+/**
+ * The individual stages of a fit: building the B-spline design matrix, building the quadratic
+ * objective from the data, finding a feasible point (phase 1) and the barrier method solve.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmark {
+    @Param({"10000", "1000000"})
+    public int n;
+
+    @Param({"16", "64", "256"})
+    public int m;
+
+    private double[] x;
+    private double[] y;
+    private double[] w;
+    private double alpha;
+    private double[] tk;
+    private LinearInequalityConstraint monotone;
+    private LinearEqualityConstraint equality;
+    private QuadraticFunction qf;
+    private double[] start;
+
+    @Setup
+    public void setup() {
+        double[][] d = BenchData.sigmoid(n, 7L);
+        x = d[0];
+        y = d[1];
+        w = new double[n];
+        Arrays.fill(w, 1.0);
+        final int M = m + 3;
+        alpha = (double)m / (BenchData.XMAX - BenchData.XMIN);
+        tk = MSISupport.knots(m, BenchData.XMIN, alpha);
+        monotone = MSISupport.monotoneConstraints(m, M);
+        equality = MSISupport.linearEqualityConstraint(tk, alpha, BenchData.XMIN, BenchData.XMAX,
+            new double[] { BenchData.XMIN, BenchData.XMAX }, new double[] { -1.0, 1.0 },
+            new double[0], new double[0]);
+        qf = MSISupport.quadraticObjective(x, y, tk, w, MonotonicSplineInterpolator.LAMBDA_DEFAULT, alpha);
+        // strictly increasing coefficients are strictly feasible for the monotone constraints
+        start = new double[M];
+        for (int k = 0; k < M; ++k) start[k] = -1.0 + 2.0 * (double)k / (double)(M - 1);
+    }
+
+    @Benchmark
+    public BSplineDesignMatrix matrixBT() {
+        return MSISupport.matrixBT(alpha, tk, x);
+    }
+
+    @Benchmark
+    public QuadraticFunction quadraticObjective() {
+        return MSISupport.quadraticObjective(x, y, tk, w, MonotonicSplineInterpolator.LAMBDA_DEFAULT, alpha);
+    }
+
+    @Benchmark
+    public PointValuePair feasiblePoint() {
+        return ConvexOptimizer.feasiblePoint(new BandedKKTSolver(), equality, monotone);
+    }
+
+    @Benchmark
+    public PointValuePair barrierOptimizer() {
+        return (new BarrierOptimizer()).optimize(
+            new BandedKKTSolver(),
+            monotone,
+            new ObjectiveFunction(qf),
+            new InitialGuess(start));
+    }
+}
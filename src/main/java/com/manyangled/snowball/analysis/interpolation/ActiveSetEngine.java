@@ -0,0 +1,37 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.optim.OptimizationData;
+
+/**
+ * An interpolation option that solves the spline fitting problem with a primal active-set method,
+ * instead of the default interior point (barrier) method.
+ * <p>
+ * Most of the 4m monotonicity constraints are inactive at the optimal spline, and the active-set
+ * method usually finds the optimal set of active constraints in a handful of iterations. Its solution
+ * satisfies the active constraints exactly, where the barrier method converges toward the boundary from
+ * the interior. The monotonicity constraints are the exception: they are held with a slack of about
+ * 1e-10 relative to the coefficients, so that rounding cannot make the derivative of the spline negative
+ * where it touches zero. It supports the equality, gradient and inequality constraints of
+ * {@link MonotonicSplineInterpolator}, and any other linear constraints passed as options.
+ * A {@link org.apache.commons.math3.optim.MaxIter} option bounds its number of iterations.
+ * <p>
+ * Pass an instance to {@link MonotonicSplineInterpolator#addInterpolationOptions(OptimizationData...)}.
+ */
+public class ActiveSetEngine implements OptimizationData {
+    public ActiveSetEngine() {
+    }
+}
@@ -0,0 +1,310 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+import org.apache.commons.math3.exception.TooManyIterationsException;
+
+import org.apache.commons.math3.optim.MaxIter;
+import org.apache.commons.math3.optim.OptimizationData;
+import org.apache.commons.math3.optim.PointValuePair;
+
+import com.manyangled.gibbous.optim.convex.QuadraticFunction;
+import com.manyangled.gibbous.optim.convex.LinearFunction;
+import com.manyangled.gibbous.optim.convex.LinearInequalityConstraint;
+import com.manyangled.gibbous.optim.convex.LinearEqualityConstraint;
+import com.manyangled.gibbous.optim.convex.InequalityConstraintSet;
+
+/**
+ * Primal active-set method for convex quadratic programs with linear constraints:
+ * minimize (1/2)(x)(G)(x) + (g)(x) + r subject to (A)(x) &le; b and (Aeq)(x) = beq.
+ * <p>
+ * Starting from a feasible point, each iteration solves the equality constrained problem for the current
+ * working set of active constraints, with a range-space (Schur complement) method built on a banded
+ * factorization of G. Steps are cut short by the first blocking constraint, which joins the working set,
+ * and constraints with negative Lagrange multipliers leave it. For the monotone spline problem most of the
+ * 4m monotonicity constraints are inactive at the optimum, and the method typically converges in a few
+ * iterations to the exact solution for its final active set. Constraints that are active at the starting
+ * point begin in the working set, so a warm start from a previous solution typically converges in one or
+ * two iterations.
+ */
+class ActiveSetOptimizer {
+    private int iterations = 0;
+    private LinearInequalityConstraint tightened = null;
+    private double margin = 0.0;
+
+    /**
+     * Require the constraints of c to hold with a positive slack: (A)(x) &le; b - margin.
+     * @param c one of the inequality constraints that will be passed to optimize
+     * @param margin the slack, &ge; 0
+     */
+    void setMargin(LinearInequalityConstraint c, double margin) {
+        this.tightened = c;
+        this.margin = margin;
+    }
+
+    /** the number of iterations taken by the most recent optimization */
+    int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param qf the quadratic objective
+     * @param optArgs the constraints, as passed to the barrier optimizer. Only linear constraints
+     * are supported. A MaxIter option, if present, bounds the number of iterations.
+     * @param start a feasible starting point. Inequality constraints within a small tolerance of the
+     * boundary at this point are treated as active.
+     * @return the optimal point and objective value
+     */
+    PointValuePair optimize(QuadraticFunction qf, ArrayList<OptimizationData> optArgs, double[] start) {
+        final int n = start.length;
+        final RealVector zero = new ArrayRealVector(n);
+        final RealMatrix G = qf.hessian(zero);
+        final double[] g = qf.gradient(zero).toArray();
+
+        // gather constraint rows; equality rows come first and always stay in the working set
+        ArrayList<double[]> rows = new ArrayList<double[]>();
+        ArrayList<Double> rhs = new ArrayList<Double>();
+        int maxIter = Integer.MAX_VALUE;
+        for (OptimizationData opt: optArgs) {
+            if (opt instanceof LinearEqualityConstraint) {
+                LinearEqualityConstraint eqc = (LinearEqualityConstraint)opt;
+                for (int k = 0; k < eqc.A.getRowDimension(); ++k) {
+                    rows.add(eqc.A.getRow(k));
+                    rhs.add(eqc.b.getEntry(k));
+                }
+            } else if (opt instanceof InequalityConstraintSet) {
+                throw new IllegalArgumentException("active set engine supports only linear constraints");
+            } else if (opt instanceof MaxIter) {
+                maxIter = ((MaxIter)opt).getMaxIter();
+            }
+        }
+        final int nEq = rows.size();
+        for (OptimizationData opt: optArgs) {
+            if (opt instanceof LinearInequalityConstraint) {
+                final double slack = (opt == tightened) ? margin : 0.0;
+                // each constraint function has the form (a)(x) - b, with constraint (a)(x) - b < 0
+                for (LinearFunction f: ((LinearInequalityConstraint)opt).lcf) {
+                    rows.add(f.gradient(zero).toArray());
+                    rhs.add(-f.value(zero) - slack);
+                }
+            }
+        }
+        final int nC = rows.size();
+        final double[][] A = rows.toArray(new double[0][]);
+        final double[] b = new double[nC];
+        for (int i = 0; i < nC; ++i) b[i] = rhs.get(i);
+        final double[] aNorm = new double[nC];
+        for (int i = 0; i < nC; ++i) aNorm[i] = norm(A[i]);
+        // the non-zero range [lo, hi) of each row: monotonicity and spline value constraints touch
+        // only 4 adjacent coefficients
+        final int[] lo = new int[nC];
+        final int[] hi = new int[nC];
+        for (int i = 0; i < nC; ++i) {
+            int j0 = 0;
+            int j1 = n;
+            while ((j0 < n) && (A[i][j0] == 0.0)) ++j0;
+            while ((j1 > j0) && (A[i][j1 - 1] == 0.0)) --j1;
+            lo[i] = j0;
+            hi[i] = j1;
+        }
+        if (maxIter == Integer.MAX_VALUE) maxIter = ITER_FACTOR * (n + nC);
+
+        final GSolver gs = new GSolver(G);
+
+        double[] x = start.clone();
+        boolean[] working = new boolean[nC];
+        ArrayList<Integer> W = new ArrayList<Integer>();
+        for (int i = 0; i < nEq; ++i) {
+            working[i] = true;
+            W.add(i);
+        }
+        // Inequality constraints that are active at the start (e.g. for a warm start from a previous
+        // solution) begin in the working set, as long as they are linearly independent of it.
+        // Rows are orthogonalized against the working set as they are added.
+        final double tol = ACTIVE_EPS * (1.0 + norm(x));
+        ArrayList<double[]> basis = new ArrayList<double[]>();
+        for (int i = 0; i < nC; ++i) {
+            if ((i >= nEq) && ((b[i] - dot(A[i], x, lo[i], hi[i])) > tol * aNorm[i])) continue;
+            double[] v = A[i].clone();
+            for (double[] e: basis) {
+                double c = dot(v, e);
+                for (int j = 0; j < n; ++j) v[j] -= c * e[j];
+            }
+            double vn = norm(v);
+            if (vn <= INDEPENDENT_EPS * aNorm[i]) continue;
+            for (int j = 0; j < n; ++j) v[j] /= vn;
+            basis.add(v);
+            if (i >= nEq) {
+                working[i] = true;
+                W.add(i);
+            }
+        }
+        // (G^-1)(a) for each constraint row a that has been in the working set
+        final double[][] Ginv = new double[nC][];
+        // constraints that are numerically dependent on the working set, which cannot block a step
+        boolean[] dependent = new boolean[nC];
+
+        iterations = 0;
+        while (true) {
+            if (++iterations > maxIter) throw new TooManyIterationsException(maxIter);
+
+            // solve the equality constrained sub-problem for step p and multipliers mu
+            final int w = W.size();
+            double[] q = G.operate(x);
+            for (int j = 0; j < n; ++j) q[j] += g[j];
+            double[] u = gs.solve(q);
+            double[] p = new double[n];
+            double[] mu = new double[w];
+            DecompositionSolver ssol = null;
+            if (w > 0) {
+                // Y = (G^-1)(AW^T), S = (AW)(Y)
+                double[][] Y = new double[w][];
+                for (int k = 0; k < w; ++k) {
+                    final int i = W.get(k);
+                    if (Ginv[i] == null) Ginv[i] = gs.solve(A[i]);
+                    Y[k] = Ginv[i];
+                }
+                double[][] S = new double[w][w];
+                double[] t = new double[w];
+                for (int k = 0; k < w; ++k) {
+                    final int i = W.get(k);
+                    for (int l = 0; l < w; ++l) S[k][l] = dot(A[i], Y[l], lo[i], hi[i]);
+                    // residual (b - (A)(x)) keeps the working set exactly satisfied
+                    t[k] = -((b[i] - dot(A[i], x, lo[i], hi[i])) + dot(A[i], u, lo[i], hi[i]));
+                }
+                ssol = solver(S);
+                mu = ssol.solve(new ArrayRealVector(t, false)).toArray();
+                for (int k = 0; k < w; ++k)
+                    for (int j = 0; j < n; ++j) p[j] -= Y[k][j] * mu[k];
+            }
+            for (int j = 0; j < n; ++j) p[j] -= u[j];
+
+            double pNorm = norm(p);
+            if (pNorm <= STEP_EPS * (1.0 + norm(x))) {
+                // at the minimum for this working set: check multipliers of active inequalities
+                int drop = -1;
+                double muMin = -MU_EPS;
+                for (int k = 0; k < w; ++k) {
+                    if ((W.get(k) >= nEq) && (mu[k] < muMin)) {
+                        muMin = mu[k];
+                        drop = k;
+                    }
+                }
+                if (drop < 0) break;
+                working[W.get(drop)] = false;
+                W.remove(drop);
+                Arrays.fill(dependent, false);
+                continue;
+            }
+
+            // longest feasible step along p, up to 1
+            double step = 1.0;
+            int block = -1;
+            for (int i = nEq; i < nC; ++i) {
+                if (working[i] || dependent[i]) continue;
+                double ap = dot(A[i], p, lo[i], hi[i]);
+                if (ap <= BLOCK_EPS * aNorm[i] * pNorm) continue;
+                double s = Math.max(0.0, (b[i] - dot(A[i], x, lo[i], hi[i])) / ap);
+                if (s < step) {
+                    step = s;
+                    block = i;
+                }
+            }
+            for (int j = 0; j < n; ++j) x[j] += step * p[j];
+            if (block >= 0) {
+                // A blocking constraint is independent of the working set in exact arithmetic. Rounding can
+                // let a dependent one through, which would make S singular and its multipliers meaningless,
+                // so compare its (G^-1) norm with that of its projection onto the working set.
+                if (Ginv[block] == null) Ginv[block] = gs.solve(A[block]);
+                final double[] ab = A[block];
+                double d = dot(ab, Ginv[block], lo[block], hi[block]);
+                if (w > 0) {
+                    double[] v = new double[w];
+                    for (int k = 0; k < w; ++k) v[k] = dot(ab, Ginv[W.get(k)], lo[block], hi[block]);
+                    double[] y = ssol.solve(new ArrayRealVector(v, false)).toArray();
+                    d -= dot(v, y);
+                }
+                if (d > INDEPENDENT_EPS * INDEPENDENT_EPS * dot(ab, Ginv[block], lo[block], hi[block])) {
+                    working[block] = true;
+                    W.add(block);
+                } else {
+                    dependent[block] = true;
+                }
+            }
+        }
+        return new PointValuePair(x, qf.value(x));
+    }
+
+    // solves (G)(x) = b, using a banded factorization when G is banded
+    private static class GSolver {
+        private final BandedCholesky chol;
+        private final DecompositionSolver dense;
+
+        GSolver(RealMatrix G) {
+            final int p = BandedCholesky.bandwidth(G);
+            this.chol = BandedCholesky.factor(G, p);
+            this.dense = (chol == null) ? (new SingularValueDecomposition(G)).getSolver() : null;
+        }
+
+        double[] solve(double[] b) {
+            if (chol != null) return chol.solve(b);
+            return dense.solve(new ArrayRealVector(b, false)).toArray();
+        }
+    }
+
+    private static DecompositionSolver solver(double[][] S) {
+        RealMatrix SM = new Array2DRowRealMatrix(S, false);
+        DecompositionSolver lu = (new LUDecomposition(SM)).getSolver();
+        if (lu.isNonSingular()) return lu;
+        return (new SingularValueDecomposition(SM)).getSolver();
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return dot(a, b, 0, a.length);
+    }
+
+    private static double dot(double[] a, double[] b, int lo, int hi) {
+        double s = 0.0;
+        for (int j = lo; j < hi; ++j) s += a[j] * b[j];
+        return s;
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    // a step smaller than this, relative to the size of x, is treated as zero
+    private static final double STEP_EPS = 1e-12;
+    // multipliers must be below -MU_EPS to be considered negative
+    private static final double MU_EPS = 1e-12;
+    // constraints whose direction cosine with the step is below this cannot block it
+    private static final double BLOCK_EPS = 1e-10;
+    // constraints within this distance of the start, relative to its size, are considered active
+    private static final double ACTIVE_EPS = 1e-9;
+    // rows with a relative component below this outside the span of the working set are dependent
+    private static final double INDEPENDENT_EPS = 1e-5;
+    // default iteration limit, as a multiple of (variables + constraints)
+    private static final int ITER_FACTOR = 10;
+}
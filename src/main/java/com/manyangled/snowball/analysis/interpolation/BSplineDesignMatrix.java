@@ -0,0 +1,108 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.AbstractRealMatrix;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.MatrixUtils;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.MathUnsupportedOperationException;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.basisB3;
+
+/**
+ * Compact representation of the (transposed) B-spline design matrix from Eq(12).
+ * Each data row has at most 4 non-zero basis values, at columns (q-3) ... q, where q
+ * is the knot interval containing the data point. Only those 4 values are stored,
+ * so memory and assembly cost are O(n) instead of O(n x M).
+ * <p>
+ * Fitting does not build this matrix: {@link GramAccumulator} folds the same basis values of each data
+ * point directly into the objective. It backs {@link MSISupport#matrixBT}, for callers that want B itself.
+ */
+class BSplineDesignMatrix extends AbstractRealMatrix {
+    // number of stored basis values per row
+    static final int W = 4;
+
+    private final int n;
+    private final int M;
+    // column index of the first stored value in each row; may be negative near the left boundary
+    private final int[] first;
+    // stored basis values, W per row
+    private final double[] v;
+
+    BSplineDesignMatrix(double alpha, double[] tk, double[] u) {
+        this.n = u.length;
+        this.M = tk.length;
+        this.first = new int[n];
+        this.v = new double[W * n];
+        for (int j = 0; j < n; ++j) first[j] = basisB3(u[j], alpha, tk, v, W * j);
+    }
+
+    private BSplineDesignMatrix(int n, int M, int[] first, double[] v) {
+        this.n = n;
+        this.M = M;
+        this.first = first;
+        this.v = v;
+    }
+
+    @Override
+    public int getRowDimension() {
+        return n;
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return M;
+    }
+
+    @Override
+    public double getEntry(int row, int column) {
+        MatrixUtils.checkMatrixIndex(this, row, column);
+        int d = column - first[row];
+        return ((d >= 0) && (d < W)) ? v[W * row + d] : 0.0;
+    }
+
+    @Override
+    public void setEntry(int row, int column, double value) {
+        throw new MathUnsupportedOperationException();
+    }
+
+    @Override
+    public RealMatrix createMatrix(int rowDimension, int columnDimension) {
+        return new Array2DRowRealMatrix(rowDimension, columnDimension);
+    }
+
+    @Override
+    public RealMatrix copy() {
+        return new BSplineDesignMatrix(n, M, first.clone(), v.clone());
+    }
+
+    @Override
+    public double[] operate(double[] x) {
+        if (x.length != M) throw new DimensionMismatchException(x.length, M);
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            int z = first[j];
+            double s = 0.0;
+            for (int d = 0; d < W; ++d) {
+                int k = z + d;
+                if ((k >= 0) && (k < M)) s += v[W * j + d] * x[k];
+            }
+            y[j] = s;
+        }
+        return y;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Cholesky factorization (L)(LT) of a symmetric positive definite band matrix, with p non-zero
+ * diagonals on each side of the main diagonal. Factoring costs O(n p<sup>2</sup>) and each solve
+ * costs O(n p), instead of O(n<sup>3</sup>) and O(n<sup>2</sup>) for a dense matrix.
+ */
+class BandedCholesky {
+    final int n;
+    final int p;
+    // l[(p+1)*i + (i-j)] holds L[i][j], for j in [i-p, i]
+    private final double[] l;
+
+    private BandedCholesky(int n, int p, double[] l) {
+        this.n = n;
+        this.p = p;
+        this.l = l;
+    }
+
+    /** the number of non-zero diagonals of symmetric matrix A on either side of the main diagonal */
+    static int bandwidth(RealMatrix A) {
+        final int n = A.getRowDimension();
+        int p = 0;
+        for (int i = 0; i < n; ++i) {
+            // only the lower triangle is consulted
+            for (int j = 0; j < i - p; ++j) {
+                if (A.getEntry(i, j) != 0.0) {
+                    p = i - j;
+                    break;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * factor the symmetric matrix A with bandwidth p, reading only its lower triangle.
+     * @return the factorization, or null if A is not numerically positive definite
+     */
+    static BandedCholesky factor(RealMatrix A, int p) {
+        final int n = A.getRowDimension();
+        final int w = p + 1;
+        double[] l = new double[n * w];
+        for (int i = 0; i < n; ++i) {
+            for (int j = Math.max(0, i - p); j <= i; ++j) {
+                double s = A.getEntry(i, j);
+                for (int k = Math.max(0, i - p); k < j; ++k)
+                    s -= l[w * i + (i - k)] * l[w * j + (j - k)];
+                if (j < i) {
+                    l[w * i + (i - j)] = s / l[w * j];
+                } else {
+                    // non-positive (or NaN) pivot: A is not positive definite
+                    if (!(s > PIVOT_EPS * Math.abs(A.getEntry(i, i)))) return null;
+                    l[w * i] = Math.sqrt(s);
+                }
+            }
+        }
+        return new BandedCholesky(n, p, l);
+    }
+
+    /** solve (A)(x) = b, in place */
+    void solveInPlace(double[] b) {
+        final int w = p + 1;
+        // forward substitution (L)(y) = b
+        for (int i = 0; i < n; ++i) {
+            double s = b[i];
+            for (int k = Math.max(0, i - p); k < i; ++k) s -= l[w * i + (i - k)] * b[k];
+            b[i] = s / l[w * i];
+        }
+        // back substitution (LT)(x) = y
+        for (int i = n - 1; i >= 0; --i) {
+            double s = b[i];
+            for (int k = i + 1; k <= Math.min(n - 1, i + p); ++k) s -= l[w * k + (k - i)] * b[k];
+            b[i] = s / l[w * i];
+        }
+    }
+
+    /** solve (A)(x) = b */
+    double[] solve(double[] b) {
+        double[] x = b.clone();
+        solveInPlace(x);
+        return x;
+    }
+
+    // pivots smaller than this, relative to the corresponding diagonal element, are treated as zero
+    private static final double PIVOT_EPS = 1e-14;
+}
@@ -0,0 +1,99 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+import com.manyangled.gibbous.optim.convex.KKTSolver;
+import com.manyangled.gibbous.optim.convex.KKTSolution;
+import com.manyangled.gibbous.optim.convex.SVDSchurKKTSolver;
+
+/**
+ * A KKT solver that exploits the band structure of the monotone spline fitting problem.
+ * <p>
+ * The Hessian of the spline objective has 7 non-zero diagonals (from lambda Q and the B-spline Gram matrix),
+ * and every monotonicity and inequality constraint touches only 4 adjacent coefficients, so the Hessian of the
+ * barrier function keeps the same band structure. This solver factors it with a banded Cholesky decomposition,
+ * and handles any equality constraints with a Schur complement, whose dimension is the (usually small) number
+ * of equality constraints.
+ * <p>
+ * If the Hessian is not banded, or is not numerically positive definite, the solver falls back to
+ * {@link SVDSchurKKTSolver}.
+ */
+public class BandedKKTSolver extends KKTSolver {
+    private final SVDSchurKKTSolver fallback = new SVDSchurKKTSolver();
+    // the number of systems solved, which is the number of Newton steps taken by an optimizer using this solver
+    int solves = 0;
+
+    public BandedKKTSolver() {
+        super();
+    }
+
+    @Override
+    public KKTSolution solve(final RealMatrix H, final RealVector g) {
+        ++solves;
+        BandedCholesky chol = factor(H);
+        if (chol == null) return fallback.solve(H, g);
+        double[] xd = chol.solve(g.toArray());
+        RealVector xDelta = new ArrayRealVector(xd, false);
+        double lambdaSquared = g.dotProduct(xDelta);
+        xDelta.mapMultiplyToSelf(-1.0);
+        return new KKTSolution(xDelta, lambdaSquared);
+    }
+
+    @Override
+    public KKTSolution solve(
+        final RealMatrix H,
+        final RealMatrix A, final RealMatrix AT,
+        final RealVector g, final RealVector h) {
+        ++solves;
+        BandedCholesky chol = factor(H);
+        if (chol == null) return fallback.solve(H, A, AT, g, h);
+        final int n = H.getRowDimension();
+        final int p = A.getRowDimension();
+        // (H^-1)(AT), one column at a time
+        double[][] HinvAT = new double[n][p];
+        double[] col = new double[n];
+        for (int k = 0; k < p; ++k) {
+            for (int j = 0; j < n; ++j) col[j] = AT.getEntry(j, k);
+            chol.solveInPlace(col);
+            for (int j = 0; j < n; ++j) HinvAT[j][k] = col[j];
+        }
+        RealVector Hinvg = new ArrayRealVector(chol.solve(g.toArray()), false);
+        // Schur complement S = (A)(H^-1)(AT), which is only p x p
+        RealMatrix S = A.multiply(new Array2DRowRealMatrix(HinvAT, false));
+        // as with SVDSchurKKTSolver, SVD tolerates equality constraints that are not independent
+        RealVector nuPlus = (new SingularValueDecomposition(S)).getSolver().solve(h.subtract(A.operate(Hinvg)));
+        double[] rhs = g.add(AT.operate(nuPlus)).toArray();
+        chol.solveInPlace(rhs);
+        RealVector xDelta = new ArrayRealVector(rhs, false);
+        xDelta.mapMultiplyToSelf(-1.0);
+        return new KKTSolution(xDelta, nuPlus);
+    }
+
+    private static BandedCholesky factor(RealMatrix H) {
+        final int n = H.getRowDimension();
+        int p = BandedCholesky.bandwidth(H);
+        // a wide band is no cheaper than a dense solve
+        if ((BAND_FACTOR * p) > n) return null;
+        return BandedCholesky.factor(H, p);
+    }
+
+    // use the banded factorization only when the bandwidth is at most (1 / BAND_FACTOR) of the dimension
+    private static final int BAND_FACTOR = 4;
+}
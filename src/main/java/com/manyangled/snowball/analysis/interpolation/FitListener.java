@@ -0,0 +1,66 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.optim.OptimizationData;
+
+/**
+ * An interpolation option that observes the internals of each fit: how long each stage takes and how much
+ * it allocates, and how much work the solver does. Implement the methods of interest, for example to
+ * export them to a metrics system; the others default to doing nothing.
+ * <p>
+ * Pass an instance to {@link MonotonicSplineInterpolator#addInterpolationOptions(OptimizationData...)}.
+ * Without a listener, fits do no timing or counting at all. A listener that is part of a shared
+ * configuration may be called concurrently by fits running on different threads.
+ */
+public interface FitListener extends OptimizationData {
+    /** the stages of a fit */
+    enum Stage {
+        /** accumulating the data into the B-spline normal equations, when fitting from data arrays */
+        ASSEMBLY,
+        /** building the quadratic objective from the accumulated data */
+        OBJECTIVE,
+        /** finding a feasible starting point, which is reported only when a separate solve is needed */
+        PHASE1,
+        /** solving for the spline coefficients */
+        SOLVE
+    }
+
+    /**
+     * Called when a stage of a fit completes.
+     * @param stage the stage
+     * @param nanos the elapsed time of the stage, in nanoseconds
+     * @param allocatedBytes the bytes allocated by the fitting thread during the stage, or -1 if the JVM does not
+     * report them. Allocation by other threads, such as {@link ParallelAssembly} workers, is not included.
+     */
+    default void stage(Stage stage, long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * Called when the solve of a fit completes.
+     * @param outerIterations the number of barrier method centering steps, or the number of iterations of the
+     * active set method when {@link ActiveSetEngine} is selected
+     * @param innerIterations the total number of Newton steps (KKT system solves) of the barrier method, or the
+     * number of iterations of the active set method. -1 if the steps could not be counted, because a
+     * {@link com.manyangled.gibbous.optim.convex.KKTSolver} was supplied as an option.
+     * @param dualityGap the duality gap bound at the solution: (inequality constraints) / t for the final barrier
+     * parameter t, or 0 for the active set method, which solves exactly
+     * @param inequalityConstraints the number of inequality constraints, including the monotonicity constraints
+     * @param equalityConstraints the number of equality constraints
+     */
+    default void solved(int outerIterations, int innerIterations, double dualityGap,
+                        int inequalityConstraints, int equalityConstraints) {
+    }
+}
@@ -0,0 +1,140 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import com.manyangled.gibbous.optim.convex.LinearInequalityConstraint;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.knots;
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.lambdaQ;
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.monotoneConstraints;
+
+/**
+ * The parts of the fitting problem that depend only on the configuration (m, xmin, xmax) and not on the data
+ * or the smoothing parameter: the knots K, the smoothing matrix Q for lambda = 1, and the monotonicity
+ * constraints. Q is scaled by lambda where it is used, so one plan serves every lambda. Plans are immutable.
+ * Plans for declared bounds are shared by all fits with the same configuration through an LRU cache bounded
+ * by the estimated size of its plans, so that repeated fits of many curves with identical settings do not
+ * rebuild these structures each time. Plans for bounds taken from the data are built for a single fit, since
+ * other data would almost never have the same bounds.
+ */
+class FitPlan {
+    final int m;
+    final int M;
+    final double xmin;
+    final double xmax;
+    final double alpha;
+    // knot points t(-3) ... t(m-1)
+    final double[] tk;
+    // Q from Eq(15), for lambda = 1; read only
+    final RealMatrix q;
+    // the 4m monotonicity constraints; read only
+    final LinearInequalityConstraint monotone;
+
+    private FitPlan(int m, double xmin, double xmax) {
+        this.m = m;
+        this.M = m + 3;
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.alpha = (double)m / (xmax - xmin);
+        this.tk = knots(m, xmin, alpha);
+        this.q = lambdaQ(M, 1.0, alpha);
+        this.monotone = monotoneConstraints(m, M);
+    }
+
+    /** the plan for this configuration, from the cache if possible */
+    static FitPlan of(int m, double xmin, double xmax) {
+        final Key key = new Key(m, xmin, xmax);
+        synchronized (cache) {
+            FitPlan plan = cache.get(key);
+            if (plan != null) return plan;
+        }
+        // build outside the lock; if another thread builds the same plan concurrently, either one will do
+        FitPlan plan = new FitPlan(m, xmin, xmax);
+        final long bytes = plan.bytes();
+        // a plan larger than the whole cache would only evict everything else
+        if (bytes > CACHE_BYTES) return plan;
+        synchronized (cache) {
+            FitPlan old = cache.put(key, plan);
+            if (old != null) cachedBytes -= old.bytes();
+            cachedBytes += bytes;
+            Iterator<FitPlan> lru = cache.values().iterator();
+            while (cachedBytes > CACHE_BYTES) {
+                cachedBytes -= lru.next().bytes();
+                lru.remove();
+            }
+        }
+        return plan;
+    }
+
+    /** a plan for this configuration that is not cached, for bounds that were taken from the data */
+    static FitPlan uncached(int m, double xmin, double xmax) {
+        return new FitPlan(m, xmin, xmax);
+    }
+
+    /** remove every cached plan */
+    static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0L;
+        }
+    }
+
+    /** the approximate memory used by this plan, in bytes: Q, the monotone rows and the knots */
+    long bytes() {
+        return 8L * ((long)M * (long)M + (4L * m) * (M + 1L) + M);
+    }
+
+    private static final class Key {
+        final int m;
+        final double xmin;
+        final double xmax;
+
+        Key(int m, double xmin, double xmax) {
+            this.m = m;
+            this.xmin = xmin;
+            this.xmax = xmax;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key that = (Key)o;
+            return (this.m == that.m) &&
+                (Double.compare(this.xmin, that.xmin) == 0) &&
+                (Double.compare(this.xmax, that.xmax) == 0);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = m;
+            h = 31 * h + Double.hashCode(xmin);
+            h = 31 * h + Double.hashCode(xmax);
+            return h;
+        }
+    }
+
+    // the maximum estimated size of all cached plans, in bytes
+    static final long CACHE_BYTES = 64L << 20;
+
+    // least recently used plans are evicted first; guarded by synchronizing on the map itself
+    private static final LinkedHashMap<Key, FitPlan> cache = new LinkedHashMap<Key, FitPlan>(16, 0.75f, true);
+    // the estimated size of the cached plans; guarded by the cache
+    private static long cachedBytes = 0L;
+}
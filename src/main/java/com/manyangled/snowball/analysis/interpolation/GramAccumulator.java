@@ -0,0 +1,366 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.apache.commons.math3.exception.DimensionMismatchException;
+
+import com.manyangled.gibbous.optim.convex.QuadraticFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.basisB3;
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.knots;
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.lambdaQ;
+
+/**
+ * Accumulates the data dependent terms of the quadratic objective from Eq(14), one weighted
+ * data point at a time. (B)(W)(BT) from Eq(15) has only 7 non-zero diagonals, and is symmetric,
+ * so it is stored as its main diagonal and the 3 diagonals above it.
+ */
+class GramAccumulator implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // number of stored diagonals: the main diagonal plus 3 above it
+    static final int D = 4;
+
+    final int m;
+    final int M;
+    final double xmin;
+    final double xmax;
+    final double alpha;
+    final double[] tk;
+
+    // band[D*k + d] holds (B)(W)(BT)[k][k+d]
+    final double[] band;
+    // B(W)(d) from Eq(16), not yet negated
+    final double[] bwd;
+    // (d)(W)(d) from Eq(17)
+    double r = 0.0;
+    // number of data points accumulated
+    long n = 0;
+
+    // scratch space for basis values
+    private final double[] b = new double[D];
+
+    GramAccumulator(int m, double xmin, double xmax) {
+        this((double)m / (xmax - xmin), knots(m, xmin, (double)m / (xmax - xmin)), xmax);
+    }
+
+    GramAccumulator(double alpha, double[] tk) {
+        this(alpha, tk, tk[3] + ((double)(tk.length - 3) / alpha));
+    }
+
+    /** an empty accumulator with the same knots as this one */
+    GramAccumulator emptyCopy() {
+        return new GramAccumulator(alpha, tk, xmax);
+    }
+
+    private GramAccumulator(double alpha, double[] tk, double xmax) {
+        this.alpha = alpha;
+        this.tk = tk;
+        this.M = tk.length;
+        this.m = M - 3;
+        this.xmin = tk[3];
+        this.xmax = xmax;
+        this.band = new double[D * M];
+        this.bwd = new double[M];
+    }
+
+    /** add the contribution of data point (x, y) with weight w */
+    void add(double x, double y, double w) {
+        int z = basisB3(x, alpha, tk, b, 0);
+        double wy = w * y;
+        for (int p = 0; p < D; ++p) {
+            int k = z + p;
+            if (k < 0) continue;
+            double bw = w * b[p];
+            for (int q = p; q < D; ++q) band[D * k + (q - p)] += bw * b[q];
+            bwd[k] += wy * b[p];
+        }
+        r += wy * y;
+        n += 1;
+    }
+
+    void add(double[] x, double[] y, double[] w) {
+        int len = x.length;
+        if (y.length != len) throw new DimensionMismatchException(y.length, len);
+        if (w.length != len) throw new DimensionMismatchException(w.length, len);
+        for (int j = 0; j < len; ++j) add(x[j], y[j], w[j]);
+    }
+
+    /** a data weight must be &gt; 0, which also rejects NaN */
+    static void checkWeight(double w) {
+        if (!(w > 0.0)) throw new IllegalArgumentException("weights (w) must be > 0");
+    }
+
+    /**
+     * add a chunk of data points supplied by a user; every point is checked before any is added,
+     * so a chunk that is rejected leaves the statistics unchanged
+     * @param w the weights, or null for weights of 1
+     */
+    void addChunk(double[] x, double[] y, double[] w) {
+        final int len = x.length;
+        if (y.length != len) throw new DimensionMismatchException(y.length, len);
+        if (w == null) {
+            for (int j = 0; j < len; ++j) add(x[j], y[j], 1.0);
+            return;
+        }
+        if (w.length != len) throw new DimensionMismatchException(w.length, len);
+        for (int j = 0; j < len; ++j) checkWeight(w[j]);
+        for (int j = 0; j < len; ++j) add(x[j], y[j], w[j]);
+    }
+
+    /**
+     * add a chunk of data points from the remaining elements of buffers, as {@link #addChunk(double[],
+     * double[], double[])}; the buffer positions are only advanced if the chunk is added
+     * @param w the buffer of weights, or null for weights of 1
+     */
+    void addChunk(DoubleBuffer x, DoubleBuffer y, DoubleBuffer w) {
+        final int len = x.remaining();
+        if (y.remaining() != len) throw new DimensionMismatchException(y.remaining(), len);
+        if (w == null) {
+            for (int j = 0; j < len; ++j) add(x.get(), y.get(), 1.0);
+            return;
+        }
+        if (w.remaining() != len) throw new DimensionMismatchException(w.remaining(), len);
+        final int wp = w.position();
+        for (int j = 0; j < len; ++j) checkWeight(w.get(wp + j));
+        for (int j = 0; j < len; ++j) add(x.get(), y.get(), w.get());
+    }
+
+    /**
+     * add data points from the remaining elements of a buffer of interleaved (x, y) pairs or (x, y, w)
+     * triples, as {@link #addChunk(double[], double[], double[])}
+     */
+    void addInterleaved(DoubleBuffer xy, boolean weighted) {
+        final int stride = weighted ? 3 : 2;
+        if ((xy.remaining() % stride) != 0)
+            throw new IllegalArgumentException(String.format("buffer length must be a multiple of %d", stride));
+        final int len = xy.remaining() / stride;
+        if (weighted) {
+            final int p = xy.position();
+            for (int j = 0; j < len; ++j) checkWeight(xy.get(p + 3 * j + 2));
+            for (int j = 0; j < len; ++j) add(xy.get(), xy.get(), xy.get());
+        } else {
+            for (int j = 0; j < len; ++j) add(xy.get(), xy.get(), 1.0);
+        }
+    }
+
+    /**
+     * add the contributions of all data points, splitting the work into fork/join tasks of
+     * at most (grain) points each, and summing their partial statistics.
+     */
+    void add(double[] x, double[] y, double[] w, ForkJoinPool pool, int grain) {
+        int len = x.length;
+        if (y.length != len) throw new DimensionMismatchException(y.length, len);
+        if (w.length != len) throw new DimensionMismatchException(w.length, len);
+        merge(pool.invoke(new Assembly(this, x, y, w, 0, len, grain)));
+    }
+
+    private static class Assembly extends RecursiveTask<GramAccumulator> {
+        private static final long serialVersionUID = 1L;
+
+        private final GramAccumulator template;
+        private final double[] x;
+        private final double[] y;
+        private final double[] w;
+        private final int lo;
+        private final int hi;
+        private final int grain;
+
+        Assembly(GramAccumulator template, double[] x, double[] y, double[] w, int lo, int hi, int grain) {
+            this.template = template;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected GramAccumulator compute() {
+            if ((hi - lo) <= grain) {
+                GramAccumulator acc = template.emptyCopy();
+                for (int j = lo; j < hi; ++j) acc.add(x[j], y[j], w[j]);
+                return acc;
+            }
+            int mid = (lo + hi) >>> 1;
+            Assembly left = new Assembly(template, x, y, w, lo, mid, grain);
+            left.fork();
+            GramAccumulator acc = (new Assembly(template, x, y, w, mid, hi, grain)).compute();
+            acc.merge(left.join());
+            return acc;
+        }
+    }
+
+    /** true if this accumulator and that have the same knots, so their statistics can be added */
+    boolean compatible(GramAccumulator that) {
+        return (this.m == that.m) && (this.xmin == that.xmin) && (this.xmax == that.xmax);
+    }
+
+    /** add the statistics accumulated by that into this */
+    void merge(GramAccumulator that) {
+        if (!compatible(that))
+            throw new IllegalArgumentException("cannot merge statistics with different m or bounds");
+        for (int j = 0; j < band.length; ++j) band[j] += that.band[j];
+        for (int k = 0; k < M; ++k) bwd[k] += that.bwd[k];
+        r += that.r;
+        n += that.n;
+    }
+
+    /** the accumulated (B)(W)(BT) as a dense symmetric matrix */
+    double[][] gram() {
+        double[][] G = new double[M][M];
+        for (int k = 0; k < M; ++k) {
+            G[k][k] = band[D * k];
+            for (int d = 1; (d < D) && (k + d < M); ++d) {
+                G[k][k + d] = band[D * k + d];
+                G[k + d][k] = band[D * k + d];
+            }
+        }
+        return G;
+    }
+
+    /** constructs G, g and r from Eq(14), for smoothing parameter lambda */
+    QuadraticFunction quadraticObjective(double lambda) {
+        return quadraticObjective(lambdaQ(M, 1.0, alpha), lambda);
+    }
+
+    /** constructs G, g and r from Eq(14), using the Q of a fit plan for these statistics, scaled by lambda */
+    QuadraticFunction quadraticObjective(FitPlan plan, double lambda) {
+        return quadraticObjective(plan.q, lambda);
+    }
+
+    /**
+     * The weighted sum of squared residuals of the spline with coefficients tau over the accumulated data:
+     * (tau)(B)(W)(BT)(tau) - 2 (tau).(B)(W)(d) + (d)(W)(d)
+     */
+    double sse(double[] tau) {
+        double s = r;
+        for (int k = 0; k < M; ++k) {
+            // the diagonal, and twice each stored off-diagonal
+            double gk = band[D * k] * tau[k];
+            for (int d = 1; (d < D) && (k + d < M); ++d) gk += 2.0 * band[D * k + d] * tau[k + d];
+            s += tau[k] * (gk - 2.0 * bwd[k]);
+        }
+        // rounding can leave a tiny negative value for a near-perfect fit
+        return Math.max(0.0, s);
+    }
+
+    /**
+     * The effective degrees of freedom tr((G)<sup>-1</sup>(B)(W)(BT)) of the unconstrained smoother with
+     * G = (B)(W)(BT) + lambda Q, which is the trace of the linear map from the data to the fitted values.
+     * @param plan the fit plan for these statistics, whose Q is scaled by lambda
+     * @param lambda the smoothing parameter
+     */
+    double edf(FitPlan plan, double lambda) {
+        final RealMatrix q = plan.q;
+        double[][] G0 = gram();
+        double[][] h = new double[M][M];
+        for (int j = 0; j < M; ++j)
+            for (int k = 0; k < M; ++k) h[j][k] = G0[j][k] + lambda * q.getEntry(j, k);
+        RealMatrix H = new Array2DRowRealMatrix(h, false);
+        int p = BandedCholesky.bandwidth(H);
+        BandedCholesky chol = BandedCholesky.factor(H, p);
+        DecompositionSolver svd = (chol == null) ? (new SingularValueDecomposition(H)).getSolver() : null;
+        double tr = 0.0;
+        double[] col = new double[M];
+        for (int k = 0; k < M; ++k) {
+            for (int j = 0; j < M; ++j) col[j] = G0[j][k];
+            if (chol != null) {
+                chol.solveInPlace(col);
+                tr += col[k];
+            } else {
+                tr += svd.solve(new ArrayRealVector(col, false)).getEntry(k);
+            }
+        }
+        return tr;
+    }
+
+    private QuadraticFunction quadraticObjective(RealMatrix q, double lambda) {
+        // Eq(15)
+        double[][] G = gram();
+        for (int j = 0; j < M; ++j)
+            for (int k = 0; k < M; ++k)
+                G[j][k] += lambda * q.getEntry(j, k);
+        // Eq(16), with the (-1) factor for the subtraction from Eq(14)
+        double[] g = new double[M];
+        for (int k = 0; k < M; ++k) g[k] = -bwd[k];
+        // Eq(17)
+        return new QuadraticFunction(G, g, r);
+    }
+
+    /**
+     * A strictly increasing coefficient vector near the data, which is strictly feasible for the
+     * monotone constraints. Each coefficient starts from the weighted mean of the data its basis
+     * function covers; pool adjacent violators makes those means non-decreasing, and a small ramp
+     * makes them strictly increasing.
+     */
+    double[] monotoneStart() {
+        double wsum = 0.0;
+        double ysum = 0.0;
+        double[] rs = new double[M];
+        for (int k = 0; k < M; ++k) {
+            // sum of row k of (B)(W)(BT) is the total weight of the data under basis k
+            rs[k] += band[D * k];
+            for (int d = 1; (d < D) && (k + d < M); ++d) {
+                rs[k] += band[D * k + d];
+                rs[k + d] += band[D * k + d];
+            }
+            wsum += rs[k];
+            ysum += bwd[k];
+        }
+        final double ybar = (wsum > 0.0) ? ysum / wsum : 0.0;
+        // coefficients with no data under them are pulled toward the overall mean
+        final double eps = START_EPS * Math.max(wsum, 1.0) / M;
+        // pool adjacent violators: blocks of equal value, with their total weight and extent
+        double[] bv = new double[M];
+        double[] bw = new double[M];
+        int[] bn = new int[M];
+        int nb = 0;
+        for (int k = 0; k < M; ++k) {
+            bw[nb] = rs[k] + eps;
+            bv[nb] = (bwd[k] + eps * ybar) / bw[nb];
+            bn[nb] = 1;
+            ++nb;
+            while ((nb > 1) && (bv[nb - 2] > bv[nb - 1])) {
+                double wt = bw[nb - 2] + bw[nb - 1];
+                bv[nb - 2] = (bw[nb - 2] * bv[nb - 2] + bw[nb - 1] * bv[nb - 1]) / wt;
+                bw[nb - 2] = wt;
+                bn[nb - 2] += bn[nb - 1];
+                --nb;
+            }
+        }
+        final double scale = Math.max(Math.max(bv[nb - 1] - bv[0], Math.abs(ybar)), 1.0);
+        final double ramp = START_RAMP * scale / M;
+        double[] tau = new double[M];
+        for (int b = 0, k = 0; b < nb; ++b)
+            for (int j = 0; j < bn[b]; ++j, ++k) tau[k] = bv[b] + ramp * (k - 0.5 * (M - 1));
+        return tau;
+    }
+
+    // weight of the prior that pulls coefficients toward the mean, relative to the mean weight per coefficient
+    private static final double START_EPS = 1e-6;
+    // the ramp added to the starting coefficients spans this fraction of the data scale
+    private static final double START_RAMP = 1e-2;
+}
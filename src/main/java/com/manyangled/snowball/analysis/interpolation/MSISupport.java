@@ -14,13 +14,14 @@ limitations under the License.
 package com.manyangled.snowball.analysis.interpolation;
 
 import java.util.ArrayList;
+import java.lang.management.ManagementFactory;
 import static java.util.Arrays.binarySearch;
 
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.DiagonalMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
 
 import org.apache.commons.math3.optim.OptimizationData;
 import org.apache.commons.math3.optim.PointValuePair;
@@ -35,7 +36,13 @@ import com.manyangled.gibbous.optim.convex.BarrierOptimizer;
 import com.manyangled.gibbous.optim.convex.QuadraticFunction;
 import com.manyangled.gibbous.optim.convex.LinearInequalityConstraint;
 import com.manyangled.gibbous.optim.convex.LinearEqualityConstraint;
-import com.manyangled.gibbous.optim.convex.SVDSchurKKTSolver;
+import com.manyangled.gibbous.optim.convex.InequalityConstraintSet;
+import com.manyangled.gibbous.optim.convex.LinearFunction;
+import com.manyangled.gibbous.optim.convex.TwiceDifferentiableFunction;
+import com.manyangled.gibbous.optim.convex.BarrierMu;
+import com.manyangled.gibbous.optim.convex.HaltingCondition;
+import com.manyangled.gibbous.optim.convex.ConvergenceEpsilon;
+import com.manyangled.gibbous.optim.convex.KKTSolver;
 
 import com.manyangled.gibbous.optim.convex.QuadraticFunction;
 import com.manyangled.gibbous.optim.convex.LinearInequalityConstraint;
@@ -70,19 +77,29 @@ class MSISupport {
         return 0.0;
     }
 
-    public static RealMatrix matrixBT(double alpha, double[] tk, double[] u) {
+    // Fills b[o] ... b[o+3] with the basis values B3(alpha * (x - tk[k])) for k = (z, z+1, z+2, z+3),
+    // and returns z, the index of the first knot whose basis function may be non-zero at x.
+    // All other basis functions are zero at x. Values for k < 0 are set to zero.
+    public static int basisB3(double x, double alpha, double[] tk, double[] b, int o) {
+        if (x < tk[0]) {
+            // every basis function is zero to the left of the first knot
+            for (int d = 0; d < 4; ++d) b[o + d] = 0.0;
+            return 0;
+        }
+        int z = queryKj(x, tk) - 3;
+        for (int d = 0; d < 4; ++d) {
+            int k = z + d;
+            b[o + d] = (k >= 0) ? B3(alpha * (x - tk[k])) : 0.0;
+        }
+        return z;
+    }
+
+    public static BSplineDesignMatrix matrixBT(double alpha, double[] tk, double[] u) {
         // tk is array of knot points, dimension M
         // u is vector of data "x" points; in same axis as knot points tk
         // note this returns B-transposed relative to Eq(12).
-        int n = u.length;
-        int M = tk.length;
-        double[][] bt = new double[n][M];
-        for (int j = 0; j < n; ++j) {
-            for (int k = 0; k < M; ++k) {
-                bt[j][k] = B3(alpha * (u[j] - tk[k]));
-            }
-        }
-        return new Array2DRowRealMatrix(bt, false);
+        // Each row has at most 4 non-zero entries, which is all that is stored.
+        return new BSplineDesignMatrix(alpha, tk, u);
     }
 
     public static double[][] matrixRinf(int M) {
@@ -155,21 +172,11 @@ class MSISupport {
         // constructs G, g and r from Eq(14)
         // Warning: Eq(68) is presented as a generalization but its (tau).(g) term is
         // positive not negative, and it is missing the (r) term.
-        RealMatrix BT = matrixBT(alpha, tk, u);
-        RealMatrix B = BT.transpose();
-        RealMatrix lambdaQ = lambdaQ(tk.length, lambda, alpha);
-        RealMatrix W = new DiagonalMatrix(w, false);
-        // Eq(15)
-        RealMatrix G = lambdaQ.add(B.multiply(W).multiply(BT));
-        // Eq(16); 'operate' method is "multiply by vector"
-        // This adds a (-1) factor for the subtraction from Eq(14)
-        double[] rt = W.operate(d);
-        double[] g = B.operate(rt);
-        for (int j = 0; j < g.length; ++j) g[j] *= -1.0;
-        // Eq(17)
-        double r = 0.0;
-        for (int j = 0; j < d.length; ++j) r += rt[j] * d[j];
-        return new QuadraticFunction(G.getData(), g, r);
+        // Each weighted data point is accumulated directly into the banded (B)(W)(BT),
+        // B(W)(d) and (d)(W)(d) terms, without building B or W.
+        GramAccumulator acc = new GramAccumulator(alpha, tk);
+        acc.add(u, d, w);
+        return acc.quadraticObjective(lambda);
     }
 
     public static LinearInequalityConstraint monotoneConstraints(int m, int M) {
@@ -334,12 +341,163 @@ class MSISupport {
         return new LinearInequalityConstraint(new Array2DRowRealMatrix(A, false), new ArrayRealVector(b, false));
     }
 
-    public static PolynomialSplineFunction fitMonotoneSpline(
+    // the last option of the given type, or null if there is none
+    public static <T extends OptimizationData> T option(ArrayList<OptimizationData> opts, Class<T> type) {
+        T r = null;
+        for (OptimizationData opt: opts)
+            if (type.isInstance(opt)) r = type.cast(opt);
+        return r;
+    }
+
+    // options that configure snowball itself, rather than the gibbous optimizers
+    public static boolean snowballOption(OptimizationData opt) {
+        return (opt instanceof ParallelAssembly) || (opt instanceof ActiveSetEngine) || (opt instanceof FitListener);
+    }
+
+    /**
+     * @return the largest value of the inequality constraint functions in opts at x, which is &lt; 0 when
+     * x strictly satisfies all of them, or -infinity if there are no inequality constraints
+     */
+    public static double maxInequality(double[] x, ArrayList<OptimizationData> opts) {
+        RealVector xv = new ArrayRealVector(x, false);
+        double z = Double.NEGATIVE_INFINITY;
+        for (OptimizationData opt: opts) {
+            if (opt instanceof LinearInequalityConstraint) {
+                for (LinearFunction f: ((LinearInequalityConstraint)opt).lcf) z = Math.max(z, f.value(xv));
+            } else if (opt instanceof InequalityConstraintSet) {
+                for (TwiceDifferentiableFunction f: ((InequalityConstraintSet)opt).constraints)
+                    z = Math.max(z, f.value(x));
+            }
+        }
+        return z;
+    }
+
+    /** the number of inequality constraint functions in opts */
+    public static int inequalityCount(ArrayList<OptimizationData> opts) {
+        int c = 0;
+        for (OptimizationData opt: opts) {
+            if (opt instanceof LinearInequalityConstraint) c += ((LinearInequalityConstraint)opt).lcf.length;
+            else if (opt instanceof InequalityConstraintSet) c += ((InequalityConstraintSet)opt).constraints.size();
+        }
+        return c;
+    }
+
+    public static double maxAbs(double[] x) {
+        double z = 0.0;
+        for (double v: x) z = Math.max(z, Math.abs(v));
+        return z;
+    }
+
+    /**
+     * @return x, moved onto the equality constraints in opts (if any) by the smallest correction, if the
+     * result satisfies them and strictly satisfies every inequality constraint; otherwise null
+     */
+    public static double[] strictlyFeasible(double[] x, ArrayList<OptimizationData> opts) {
+        final double[] p = projectEqualities(x, opts);
+        // NaN constraint values also fail this test
+        return ((p != null) && (maxInequality(p, opts) < 0.0)) ? p : null;
+    }
+
+    /**
+     * A point on the equality constraints (A)(x) = b in opts, near x. A small correction to a strictly
+     * increasing x can easily break its monotonicity, so x is first fit to the constraints by least squares
+     * over the changes that preserve it, x + c0 + c1 (x - mean(x)) with 1 + c1 &gt; 0. Any residual is then
+     * removed by the smallest correction, x - (AT)(z), where z solves (A)(AT)(z) = (A)(x) - b in the least
+     * squares sense. Returns x itself if there are no equality constraints, and null if they are inconsistent.
+     */
+    static double[] projectEqualities(double[] x, ArrayList<OptimizationData> opts) {
+        ArrayList<double[]> rows = new ArrayList<double[]>();
+        ArrayList<Double> rhs = new ArrayList<Double>();
+        for (OptimizationData opt: opts) {
+            if (!(opt instanceof LinearEqualityConstraint)) continue;
+            LinearEqualityConstraint eqc = (LinearEqualityConstraint)opt;
+            for (int i = 0; i < eqc.A.getRowDimension(); ++i) {
+                rows.add(eqc.A.getRow(i));
+                rhs.add(eqc.b.getEntry(i));
+            }
+        }
+        if (rows.isEmpty()) return x;
+        final int k = rows.size();
+        final int n = x.length;
+        double xbar = 0.0;
+        for (double v: x) xbar += v;
+        xbar /= n;
+        double[] dx = new double[n];
+        for (int j = 0; j < n; ++j) dx[j] = x[j] - xbar;
+        // the rows and right hand side of the fit of (c0, c1)
+        double[][] uv = new double[k][2];
+        double[] r = new double[k];
+        double bmax = 0.0;
+        for (int i = 0; i < k; ++i) {
+            final double[] ai = rows.get(i);
+            for (int j = 0; j < n; ++j) uv[i][0] += ai[j];
+            uv[i][1] = dot(ai, dx);
+            r[i] = rhs.get(i) - dot(ai, x);
+            bmax = Math.max(bmax, Math.abs(rhs.get(i)));
+        }
+        // SVD here and below, since rows may be dependent, for example the same constraint given twice
+        RealVector c = (new SingularValueDecomposition(new Array2DRowRealMatrix(uv, false))).getSolver()
+            .solve(new ArrayRealVector(r, false));
+        double[] p = x.clone();
+        if (1.0 + c.getEntry(1) > 0.0)
+            for (int j = 0; j < n; ++j) p[j] += c.getEntry(0) + c.getEntry(1) * dx[j];
+        double[][] aat = new double[k][k];
+        for (int i = 0; i < k; ++i) {
+            final double[] ai = rows.get(i);
+            r[i] = dot(ai, p) - rhs.get(i);
+            for (int j = 0; j < k; ++j) aat[i][j] = dot(ai, rows.get(j));
+        }
+        RealVector z = (new SingularValueDecomposition(new Array2DRowRealMatrix(aat, false))).getSolver()
+            .solve(new ArrayRealVector(r, false));
+        for (int i = 0; i < k; ++i) {
+            final double[] ai = rows.get(i);
+            final double zi = z.getEntry(i);
+            for (int j = 0; j < n; ++j) p[j] -= zi * ai[j];
+        }
+        for (int i = 0; i < k; ++i)
+            if (!(Math.abs(dot(rows.get(i), p) - rhs.get(i)) <= EQUALITY_TOL * (1.0 + bmax))) return null;
+        return p;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double s = 0.0;
+        for (int j = 0; j < a.length; ++j) s += a[j] * b[j];
+        return s;
+    }
+
+    // the knot points t(-3), t(-2), ... t(m-1), where t(0) = xmin
+    public static double[] knots(int m, double xmin, double alpha) {
+        final double[] K = new double[m + 3];
+        for (int j = -3; j < m; ++j) K[3+j] = xmin + ((double)j / alpha);
+        return K;
+    }
+
+    /**
+     * Coefficients, for 2m uniform intervals over the same domain, of the spline with coefficients tau
+     * over m intervals. Halving the knot spacing inserts a knot at the middle of each interval, which
+     * splits each cubic B-spline basis function into five basis functions of the finer grid, with weights
+     * (1, 4, 6, 4, 1) / 8. The refined spline is identical to the original over the domain.
+     */
+    public static double[] refine(double[] tau) {
+        final int m = tau.length - 3;
+        final double[] R = new double[2 * m + 3];
+        // coarse basis k starts at fine knot (2k - 3); bases that start before the domain are dropped,
+        // and so are those starting at its upper bound, which vanish over it
+        for (int k = 0; k < tau.length; ++k) {
+            for (int i = 0; i < REFINE.length; ++i) {
+                int l = 2 * k - 3 + i;
+                if ((l >= 0) && (l < R.length)) R[l] += REFINE[i] * tau[k];
+            }
+        }
+        return R;
+    }
+
+    private static final double[] REFINE = { 0.125, 0.5, 0.75, 0.5, 0.125 };
+
+    public static MonotonicSplineFit fitMonotoneSpline(
         double[] x,
         double[] y,
-        int m,
-        double xmin,
-        double xmax,
+        FitPlan plan,
         double lambda,
         double[] w,
         double[] xC,
@@ -349,12 +507,45 @@ class MSISupport {
         double[] xltC,
         double[] yltC,
         double[] ltCF,
-        ArrayList<OptimizationData> fitOpts)
+        ArrayList<OptimizationData> fitOpts,
+        double[] warm)
     {
-        final double alpha = (double)m / (xmax - xmin);
-        final int M = m + 3;
-        final double[] K = new double[M];
-        for (int j = -3; j < m; ++j) K[3+j] = xmin + ((double)j / alpha);
+        StageTimer timer = new StageTimer(option(fitOpts, FitListener.class));
+        GramAccumulator data = new GramAccumulator(plan.m, plan.xmin, plan.xmax);
+        ParallelAssembly parallel = option(fitOpts, ParallelAssembly.class);
+        if (parallel != null) {
+            data.add(x, y, w, parallel.pool, parallel.grain);
+        } else {
+            data.add(x, y, w);
+        }
+        timer.end(FitListener.Stage.ASSEMBLY);
+        return fitMonotoneSpline(data, plan, lambda, xC, yC, xgC, ygC, xltC, yltC, ltCF, fitOpts, warm);
+    }
+
+    /**
+     * @param plan the fit plan for the m and bounds of data
+     * @param warm coefficients of a previous fit with the same m and bounds to start from, or null
+     */
+    public static MonotonicSplineFit fitMonotoneSpline(
+        GramAccumulator data,
+        FitPlan plan,
+        double lambda,
+        double[] xC,
+        double[] yC,
+        double[] xgC,
+        double[] ygC,
+        double[] xltC,
+        double[] yltC,
+        double[] ltCF,
+        ArrayList<OptimizationData> fitOpts,
+        double[] warm)
+    {
+        // the objective depends on the data only through the accumulated (G, g, r),
+        // and everything else depends only on the configuration
+        final double alpha = plan.alpha;
+        final double xmin = plan.xmin;
+        final double xmax = plan.xmax;
+        final double[] K = plan.tk;
 
         ArrayList<OptimizationData> optArgs = new ArrayList<OptimizationData>();
 
@@ -362,11 +553,23 @@ class MSISupport {
         // and Cholesky solver isn't kidding about wanting strict positive definite.
         // I'm guessing that the hyperplanar constraints are reducing the rank.
         // SVD was born to solvev matrices of less than full rank, and seems to be working.
-        optArgs.add(new SVDSchurKKTSolver());
+        // The banded solver factors the (banded) Hessian directly, solves the small Schur
+        // complement for equality constraints with SVD, and falls back to SVDSchurKKTSolver
+        // whenever the Hessian is not banded or not positive definite.
+        final FitListener listener = option(fitOpts, FitListener.class);
+        final StageTimer timer = new StageTimer(listener);
+        final BandedKKTSolver kkt = new BandedKKTSolver();
+        optArgs.add(kkt);
+
+        final boolean activeSet = option(fitOpts, ActiveSetEngine.class) != null;
+        // options placed here precede (and are overridden by) user settings
+        final int userOpts = optArgs.size();
 
         // include user supplied options
         // Any options I add after this will override any user settings.
-        optArgs.addAll(fitOpts);
+        // Options that only configure snowball itself are not passed to the optimizer.
+        for (OptimizationData opt: fitOpts)
+            if (!snowballOption(opt)) optArgs.add(opt);
 
         if ((xC.length + xgC.length) > 0) {
             LinearEqualityConstraint eqc = linearEqualityConstraint(K, alpha, xmin, xmax, xC, yC, xgC, ygC);
@@ -378,21 +581,157 @@ class MSISupport {
             optArgs.add(iqc);
         }
 
-        LinearInequalityConstraint monotone = monotoneConstraints(m, M);
-        optArgs.add(monotone);
+        optArgs.add(plan.monotone);
 
-        PointValuePair fpvp = feasiblePoint(optArgs.toArray(new OptimizationData[0]));
-        if (fpvp.getSecond() >= 0.0)
-            throw new RuntimeException("Unable to find an initial point in the feasible region");
-        double[] ig = fpvp.getFirst();
+        timer.start();
+        QuadraticFunction qf = data.quadraticObjective(plan, lambda);
+        timer.end(FitListener.Stage.OBJECTIVE);
+
+        long phase1Nanos = 0L;
+        double[] ig = null;
+        if ((warm != null) && activeSet) {
+            // crossover: the active set method starts from the previous solution itself,
+            // with the constraints that are active there
+            if (maxInequality(warm, optArgs) <= WARM_TOL * (1.0 + maxAbs(warm))) ig = warm.clone();
+        }
+        if (ig == null) {
+            // a phase-1 solve is needed only when the user constraints exclude the analytic starting point,
+            // after it is moved onto any equality constraints
+            double[] anchor = strictlyFeasible(data.monotoneStart(), optArgs);
+            if (anchor == null) {
+                final long t1 = System.nanoTime();
+                timer.start();
+                PointValuePair fpvp = feasiblePoint(optArgs.toArray(new OptimizationData[0]));
+                timer.end(FitListener.Stage.PHASE1);
+                phase1Nanos = System.nanoTime() - t1;
+                if (fpvp.getSecond() >= 0.0)
+                    throw new RuntimeException("Unable to find an initial point in the feasible region");
+                anchor = fpvp.getFirst();
+            }
+            ig = anchor;
+            if ((warm != null) && !activeSet) {
+                // push the previous solution, which may lie on or very near the boundary, into the
+                // interior along the line toward a strictly feasible point
+                double[] push = new double[warm.length];
+                for (int k = 0; k < push.length; ++k) push[k] = (1.0 - WARM_PUSH) * warm[k] + WARM_PUSH * anchor[k];
+                if (maxInequality(push, optArgs) < 0.0) {
+                    ig = push;
+                    // The barrier method's duality gap after centering at t is (constraints / t). A warm start
+                    // is already close to the optimum, so begin where that gap is a small fraction of the
+                    // objective, instead of retracing the early stages of the central path. The optimizer stops
+                    // before centering once the gap is below its convergence epsilon, so the starting gap must
+                    // not be below epsilon, or the result would be the pushed previous solution itself.
+                    ConvergenceEpsilon ce = option(optArgs, ConvergenceEpsilon.class);
+                    final double eps = (ce != null) ? ce.epsilon : ConvergenceEpsilon.CONVERGENCE_EPSILON_DEFAULT;
+                    final double gap = Math.max(eps, WARM_GAP * (1.0 + Math.abs(qf.value(push))));
+                    double t0 = inequalityCount(optArgs) / gap;
+                    optArgs.add(userOpts, new BarrierMu(BarrierMu.BARRIER_MU_DEFAULT, t0));
+                }
+            }
+        }
+
+        // the barrier method only counts its outer iterations for a halting condition,
+        // so one that never halts early is added to count them
+        final int[] outer = new int[] { 0 };
+        if (!activeSet) {
+            final HaltingCondition user = option(optArgs, HaltingCondition.class);
+            optArgs.add(new HaltingCondition((iteration, previous, current) -> {
+                ++outer[0];
+                return (user != null) && user.checker.converged(iteration, previous, current);
+            }));
+        }
 
-        QuadraticFunction qf = quadraticObjective(x, y, K, w, lambda, alpha);
         optArgs.add(new ObjectiveFunction(qf));
         optArgs.add(new InitialGuess(ig));
 
-        PointValuePair pvp = (new BarrierOptimizer()).optimize(optArgs.toArray(new OptimizationData[0]));
+        timer.start();
+        PointValuePair pvp;
+        int iterations;
+        int newtonSteps;
+        if (activeSet) {
+            ActiveSetOptimizer aso = new ActiveSetOptimizer();
+            // An active monotonicity constraint holds exactly, so the derivative of the spline touches zero
+            // there, and rounding can make it slightly negative. Requiring a small positive slack instead
+            // keeps it non-negative, as the barrier method's distance from the boundary does.
+            aso.setMargin(plan.monotone, MONOTONE_MARGIN * (1.0 + maxAbs(ig)));
+            pvp = aso.optimize(qf, optArgs, ig);
+            iterations = aso.getIterations();
+            newtonSteps = iterations;
+        } else {
+            // any phase-1 Newton steps were also solved by kkt
+            final int phase1Solves = kkt.solves;
+            pvp = (new BarrierOptimizer()).optimize(optArgs.toArray(new OptimizationData[0]));
+            iterations = outer[0];
+            // Newton steps are counted by kkt, unless the user supplied their own solver
+            newtonSteps = (option(optArgs, KKTSolver.class) == kkt) ? kkt.solves - phase1Solves : -1;
+        }
+        timer.end(FitListener.Stage.SOLVE);
+
+        if (listener != null) {
+            final int nIneq = inequalityCount(optArgs);
+            int nEq = 0;
+            for (OptimizationData opt: optArgs)
+                if (opt instanceof LinearEqualityConstraint) nEq += ((LinearEqualityConstraint)opt).A.getRowDimension();
+            if (activeSet) {
+                listener.solved(iterations, newtonSteps, 0.0, nIneq, nEq);
+            } else {
+                // the last centering step was at t = t0 (mu^(outer - 1)), using the settings the optimizer used
+                BarrierMu bmu = option(optArgs, BarrierMu.class);
+                final double mu = (bmu != null) ? bmu.mu : BarrierMu.BARRIER_MU_DEFAULT;
+                final double t0 = (bmu != null) ? bmu.t0 : BarrierMu.BARRIER_T0_DEFAULT;
+                final double gap = (outer[0] > 0) ? nIneq / (t0 * Math.pow(mu, outer[0] - 1)) : 0.0;
+                listener.solved(outer[0], newtonSteps, gap, nIneq, nEq);
+            }
+        }
 
         double[] tau = pvp.getFirst();
-        return polynomialSplineFunction(tau, alpha, xmin);
+        return new MonotonicSplineFit(tau, xmin, xmax, qf.value(tau), iterations, phase1Nanos);
     }
+
+
+    // the slack required of the monotonicity constraints by the active set method, relative to the size of tau
+    private static final double MONOTONE_MARGIN = 1e-10;
+
+    // times the stages of a fit for a FitListener, and does nothing when there is no listener
+    static final class StageTimer {
+        private final FitListener listener;
+        private long nanos;
+        private long bytes;
+
+        StageTimer(FitListener listener) {
+            this.listener = listener;
+            start();
+        }
+
+        void start() {
+            if (listener == null) return;
+            bytes = allocatedBytes();
+            nanos = System.nanoTime();
+        }
+
+        void end(FitListener.Stage stage) {
+            if (listener == null) return;
+            final long dt = System.nanoTime() - nanos;
+            final long b = allocatedBytes();
+            listener.stage(stage, dt, ((b < 0L) || (bytes < 0L)) ? -1L : (b - bytes));
+        }
+    }
+
+    // bytes allocated so far by the current thread, or -1 if the JVM does not report it
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return -1L;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean)mx;
+        if (!tmx.isThreadAllocatedMemorySupported() || !tmx.isThreadAllocatedMemoryEnabled()) return -1L;
+        return tmx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // fraction of the way from a warm start toward a strictly feasible point for the barrier method
+    private static final double WARM_PUSH = 1e-2;
+    // initial duality gap for warm starts of the barrier method, relative to the objective
+    private static final double WARM_GAP = 1e-7;
+    // residual tolerated when an analytic start is projected onto the equality constraints, relative to b
+    private static final double EQUALITY_TOL = 1e-9;
+    // constraint violation tolerated by a warm start for the active set method, relative to the coefficients
+    private static final double WARM_TOL = 1e-9;
 }
@@ -0,0 +1,179 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Iterator;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+/**
+ * Fits a monotonic spline incrementally, from data that are supplied in any number of chunks.
+ * The fitting objective depends on the data only through a fixed size set of sufficient statistics,
+ * and each data point is folded into those statistics as it arrives, so memory use does not grow
+ * with the size of the data.
+ * <p>
+ * Obtain an accumulator from {@link MonotonicSplineInterpolator#accumulator()} or
+ * {@link MonotonicSplineConfig#accumulator()}, add data with any
+ * of the add methods, and then call {@link #fit()}.
+ */
+public class MonotonicSplineAccumulator {
+    private final GramAccumulator data;
+    private final MonotonicSplineConfig config;
+
+    MonotonicSplineAccumulator(MonotonicSplineConfig config) {
+        this.data = new GramAccumulator(config.getM(), config.getXMin(), config.getXMax());
+        this.config = config;
+    }
+
+    /**
+     * Add a data point (x, y) with weight 1.
+     * @param x the x value
+     * @param y the y value
+     */
+    public void add(double x, double y) {
+        data.add(x, y, 1.0);
+    }
+
+    /**
+     * Add a data point (x, y) with weight w.
+     * @param x the x value
+     * @param y the y value
+     * @param w the weight of the point. Must be &gt; 0.
+     */
+    public void add(double x, double y, double w) {
+        GramAccumulator.checkWeight(w);
+        data.add(x, y, w);
+    }
+
+    /**
+     * Add a chunk of data points, each with weight 1.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     */
+    public void add(double[] x, double[] y) {
+        data.addChunk(x, y, null);
+    }
+
+    /**
+     * Add a chunk of weighted data points.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weights w1, w2, ... Must be &gt; 0. If any is not, no data from the chunk are added.
+     */
+    public void add(double[] x, double[] y, double[] w) {
+        data.addChunk(x, y, w);
+    }
+
+    /**
+     * Add a chunk of data points, each with weight 1, from the remaining elements of x and y.
+     * The buffer positions are advanced past the data that were consumed.
+     * @param x buffer of x data
+     * @param y buffer of y data. Must have the same number of remaining elements as x.
+     */
+    public void add(DoubleBuffer x, DoubleBuffer y) {
+        data.addChunk(x, y, null);
+    }
+
+    /**
+     * Add a chunk of weighted data points from the remaining elements of x, y and w.
+     * The buffer positions are advanced past the data that were consumed.
+     * @param x buffer of x data
+     * @param y buffer of y data. Must have the same number of remaining elements as x.
+     * @param w buffer of weights. Must have the same number of remaining elements as x, each &gt; 0.
+     * If any weight is not, no data are added and the buffer positions are unchanged.
+     */
+    public void add(DoubleBuffer x, DoubleBuffer y, DoubleBuffer w) {
+        data.addChunk(x, y, w);
+    }
+
+    /**
+     * Add data points from the remaining elements of a buffer of interleaved records, either
+     * (x, y) pairs or (x, y, w) triples. The buffer position is advanced past the data that were consumed.
+     * @param xy buffer of interleaved data records
+     * @param weighted if true, records are (x, y, w) triples; otherwise (x, y) pairs with weight 1.
+     * Weights must be &gt; 0; if any is not, no data are added and the buffer position is unchanged.
+     */
+    public void addInterleaved(DoubleBuffer xy, boolean weighted) {
+        data.addInterleaved(xy, weighted);
+    }
+
+    /**
+     * Add data points from a file of interleaved binary double records, either (x, y) pairs or
+     * (x, y, w) triples. The file is memory mapped a window at a time, so it may be much larger than
+     * available heap. Each window is checked before it is added, so if a weight is not &gt; 0, the
+     * windows before the one that holds it have already been added.
+     * @param path the data file
+     * @param order the byte order of the doubles in the file
+     * @param weighted if true, records are (x, y, w) triples; otherwise (x, y) pairs with weight 1.
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public void addFile(Path path, ByteOrder order, boolean weighted) throws IOException {
+        final long record = (weighted ? 3 : 2) * Double.BYTES;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if ((size % record) != 0)
+                throw new IllegalArgumentException(String.format("file size must be a multiple of %d", record));
+            final long window = record * (MAP_WINDOW_BYTES / record);
+            for (long pos = 0; pos < size; pos += window) {
+                long len = Math.min(window, size - pos);
+                DoubleBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len).order(order).asDoubleBuffer();
+                addInterleaved(buf, weighted);
+            }
+        }
+    }
+
+    /**
+     * Add data points from an iterator.
+     * @param points each element is either {x, y}, with weight 1, or {x, y, w}.
+     */
+    public void add(Iterator<double[]> points) {
+        while (points.hasNext()) {
+            double[] p = points.next();
+            if (p.length == 2) data.add(p[0], p[1], 1.0);
+            else if (p.length == 3) add(p[0], p[1], p[2]);
+            else throw new IllegalArgumentException("data points must have the form {x, y} or {x, y, w}");
+        }
+    }
+
+    /**
+     * The number of data points added so far.
+     * @return the number of data points
+     */
+    public long size() {
+        return data.n;
+    }
+
+    /**
+     * Fit a monotonic spline to all data added so far. The accumulator may continue to receive
+     * data after a fit, and be fit again.
+     * @return a polynomial spline that interpolates the data, and is monotonic non-decreasing over its
+     * interpolation domain.
+     * <p>
+     * NOTE: the number of data provided must be &ge; (m + 3), where (m) is the number of
+     * spline intervals configured.
+     */
+    public PolynomialSplineFunction fit() {
+        return config.fit(data, null).toPolynomialSplineFunction();
+    }
+
+    // size of each memory mapped window when reading data files
+    private static final long MAP_WINDOW_BYTES = 1L << 28;
+}
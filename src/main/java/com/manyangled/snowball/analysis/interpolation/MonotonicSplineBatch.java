@@ -0,0 +1,73 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+/**
+ * The results of fitting a batch of independent curves with
+ * {@link MonotonicSplineConfig#interpolateAll(double[][], double[][])}. A curve that cannot be fit does
+ * not abort the batch; its spline is null, and the exception that stopped its fit is recorded instead.
+ */
+public class MonotonicSplineBatch {
+    private final PolynomialSplineFunction[] splines;
+    private final RuntimeException[] errors;
+
+    MonotonicSplineBatch(PolynomialSplineFunction[] splines, RuntimeException[] errors) {
+        this.splines = splines;
+        this.errors = errors;
+    }
+
+    /** the number of curves in the batch */
+    public int size() {
+        return splines.length;
+    }
+
+    /**
+     * @param j the index of a curve in the batch
+     * @return the spline fit to curve j, or null if its fit failed
+     */
+    public PolynomialSplineFunction getSpline(int j) {
+        return splines[j];
+    }
+
+    /**
+     * @param j the index of a curve in the batch
+     * @return the exception that stopped the fit of curve j, or null if it succeeded
+     */
+    public RuntimeException getError(int j) {
+        return errors[j];
+    }
+
+    /**
+     * @param j the index of a curve in the batch
+     * @return true if curve j was fit successfully
+     */
+    public boolean succeeded(int j) {
+        return errors[j] == null;
+    }
+
+    /** the number of curves whose fit failed */
+    public int failures() {
+        int c = 0;
+        for (RuntimeException e: errors) if (e != null) ++c;
+        return c;
+    }
+
+    /** the fitted splines, in batch order, with null for each curve whose fit failed */
+    public PolynomialSplineFunction[] getSplines() {
+        return splines.clone();
+    }
+}
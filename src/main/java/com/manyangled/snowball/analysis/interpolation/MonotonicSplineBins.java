@@ -0,0 +1,185 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+
+/**
+ * A reduced, weighted version of a large data set, for fitting with
+ * {@link MonotonicSplineConfig#fit(MonotonicSplineBins, MonotonicSplineFit)}, or through the weighted
+ * path of {@link MonotonicSplineInterpolator#setW(double...)}. Each group of points is replaced by one point at
+ * its weighted mean (x, y), whose weight is the total weight of the group.
+ * <p>
+ * The fitting objective is a weighted sum of squared residuals, so {@link #merge(double[], double[], double[])},
+ * which groups points with identical x, produces exactly the same fit as the original data.
+ * {@link #bin(double[], double[], double[], int)} groups points into equal-width bins of x, and the fit
+ * changes only by how much the spline varies within a bin: each residual is evaluated at most
+ * {@link #getMaxSpread()} from its original x. Choosing many more bins than spline intervals keeps that small.
+ * <p>
+ * The reduced points do not reach the extremes of the original x. Fitting the bins directly takes an
+ * undeclared interpolation domain from the original data; fits of {@link #getX()} and {@link #getY()}
+ * should declare it, with setBounds({@link #getXMin()}, {@link #getXMax()}). Scores that count data points,
+ * such as those of {@link MonotonicSplineConfig#selectLambda(double[], double[], double[], double[])}, count
+ * reduced points.
+ */
+public final class MonotonicSplineBins {
+    final double[] x;
+    final double[] y;
+    final double[] w;
+    final double xmin;
+    final double xmax;
+    private final double spread;
+
+    private MonotonicSplineBins(double[] x, double[] y, double[] w, double xmin, double xmax, double spread) {
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.spread = spread;
+    }
+
+    /**
+     * Merge data points with identical x values, which does not change the fit.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weight of each data point, each &gt; 0, or null for weights of 1
+     * @return one point for each distinct x, in increasing order of x
+     */
+    public static MonotonicSplineBins merge(double[] x, double[] y, double[] w) {
+        check(x, y, w);
+        final int n = x.length;
+        // sorting and searching order -0.0 before 0.0, but they are the same x: adding 0.0 maps -0.0 to 0.0
+        double[] xs = new double[n];
+        for (int j = 0; j < n; ++j) xs[j] = x[j] + 0.0;
+        Arrays.sort(xs);
+        int d = 0;
+        for (int j = 0; j < n; ++j) if ((d == 0) || (xs[j] != xs[d - 1])) xs[d++] = xs[j];
+        double[] sw = new double[d];
+        double[] swy = new double[d];
+        for (int j = 0; j < n; ++j) {
+            // the sorted distinct values hold every x, so the search always succeeds
+            int k = Arrays.binarySearch(xs, 0, d, x[j] + 0.0);
+            double wj = (w == null) ? 1.0 : w[j];
+            sw[k] += wj;
+            swy[k] += wj * y[j];
+        }
+        for (int k = 0; k < d; ++k) swy[k] /= sw[k];
+        return new MonotonicSplineBins(Arrays.copyOf(xs, d), swy, sw, xs[0], xs[d - 1], 0.0);
+    }
+
+    /**
+     * Group data points into equal-width bins spanning the range of x, replacing each non-empty bin
+     * with a point at its weighted mean (x, y). Binning takes a single pass over the data.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weight of each data point, each &gt; 0, or null for weights of 1
+     * @param bins the number of bins, &ge; 1. No point moves farther than (max(x) - min(x)) / bins.
+     * @return one point for each non-empty bin, in increasing order of x
+     */
+    public static MonotonicSplineBins bin(double[] x, double[] y, double[] w, int bins) {
+        check(x, y, w);
+        if (bins < 1) throw new IllegalArgumentException("bins must be >= 1");
+        final int n = x.length;
+        double lo = x[0];
+        double hi = x[0];
+        for (int j = 1; j < n; ++j) {
+            if (x[j] < lo) lo = x[j];
+            if (x[j] > hi) hi = x[j];
+        }
+        final double scale = (hi > lo) ? (double)bins / (hi - lo) : 0.0;
+        double[] sw = new double[bins];
+        double[] swx = new double[bins];
+        double[] swy = new double[bins];
+        double[] bmin = new double[bins];
+        double[] bmax = new double[bins];
+        for (int j = 0; j < n; ++j) {
+            int k = Math.min(bins - 1, (int)((x[j] - lo) * scale));
+            double wj = (w == null) ? 1.0 : w[j];
+            if (sw[k] == 0.0) {
+                bmin[k] = x[j];
+                bmax[k] = x[j];
+            } else {
+                bmin[k] = Math.min(bmin[k], x[j]);
+                bmax[k] = Math.max(bmax[k], x[j]);
+            }
+            sw[k] += wj;
+            swx[k] += wj * x[j];
+            swy[k] += wj * y[j];
+        }
+        int d = 0;
+        double spread = 0.0;
+        for (int k = 0; k < bins; ++k) {
+            if (sw[k] == 0.0) continue;
+            double xk = swx[k] / sw[k];
+            // rounding can leave the mean a hair outside the bin's points
+            xk = Math.max(bmin[k], Math.min(bmax[k], xk));
+            spread = Math.max(spread, Math.max(xk - bmin[k], bmax[k] - xk));
+            swx[d] = xk;
+            swy[d] = swy[k] / sw[k];
+            sw[d] = sw[k];
+            ++d;
+        }
+        return new MonotonicSplineBins(
+            Arrays.copyOf(swx, d), Arrays.copyOf(swy, d), Arrays.copyOf(sw, d), lo, hi, spread);
+    }
+
+    private static void check(double[] x, double[] y, double[] w) {
+        final int n = x.length;
+        if (n == 0) throw new IllegalArgumentException("data must not be empty");
+        if (y.length != n) throw new DimensionMismatchException(y.length, n);
+        if (w == null) return;
+        if (w.length != n) throw new DimensionMismatchException(w.length, n);
+        for (int j = 0; j < n; ++j)
+            if (w[j] <= 0.0) throw new IllegalArgumentException("weights (w) must be > 0");
+    }
+
+    /** the number of reduced data points */
+    public int size() {
+        return x.length;
+    }
+
+    /** a copy of the x values of the reduced data, in increasing order */
+    public double[] getX() {
+        return x.clone();
+    }
+
+    /** a copy of the y values of the reduced data: the weighted mean y of each group */
+    public double[] getY() {
+        return y.clone();
+    }
+
+    /** a copy of the weights of the reduced data: the total weight of each group */
+    public double[] getW() {
+        return w.clone();
+    }
+
+    /** the smallest x of the original data */
+    public double getXMin() {
+        return xmin;
+    }
+
+    /** the largest x of the original data */
+    public double getXMax() {
+        return xmax;
+    }
+
+    /** the largest distance in x from an original data point to the reduced point that replaced it */
+    public double getMaxSpread() {
+        return spread;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+
+/**
+ * Points of an empirical cumulative distribution function (CDF), taken from a compact summary of a
+ * distribution, for fitting a monotone CDF with {@link MonotonicSplineConfig#fit(MonotonicSplineCDF, MonotonicSplineFit)}.
+ * The summary can be a list of centroids such as a t-digest holds, the counts of a histogram, or the distinct
+ * values of a sorted sample with their multiplicities. Each point (x, y) estimates the CDF at x, and is weighted
+ * by the number of samples it represents.
+ * <p>
+ * A fit of a CDF is constrained to equal 0 at {@link #getXMin()} and 1 at {@link #getXMax()}, the smallest and
+ * largest values of the distribution, so the fitted spline is a CDF over that domain.
+ */
+public final class MonotonicSplineCDF {
+    final double[] x;
+    final double[] y;
+    final double[] w;
+    final double xmin;
+    final double xmax;
+
+    private MonotonicSplineCDF(double[] x, double[] y, double[] w, double xmin, double xmax) {
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.xmin = xmin;
+        this.xmax = xmax;
+    }
+
+    /**
+     * The CDF of a distribution summarized by centroids. The centroid with mean x<sub>i</sub> and count
+     * c<sub>i</sub> is taken to straddle x<sub>i</sub> evenly, so the CDF at x<sub>i</sub> is estimated as
+     * (c<sub>1</sub> + ... + c<sub>i-1</sub> + c<sub>i</sub> / 2) / (total count).
+     * @param means the centroid means, in non-decreasing order
+     * @param counts the number of samples in each centroid, each &gt; 0
+     * @param min the smallest value of the distribution, &le; means[0]
+     * @param max the largest value of the distribution, &ge; the last mean, and &gt; min
+     * @return one CDF point for each centroid
+     */
+    public static MonotonicSplineCDF fromCentroids(double[] means, double[] counts, double min, double max) {
+        final int n = means.length;
+        if (counts.length != n) throw new DimensionMismatchException(counts.length, n);
+        if (n == 0) throw new IllegalArgumentException("centroids must not be empty");
+        for (int j = 0; j < n; ++j) {
+            if (!(counts[j] > 0.0)) throw new IllegalArgumentException("counts must be > 0");
+            if ((j > 0) && (means[j] < means[j - 1]))
+                throw new IllegalArgumentException("means must be sorted in non-decreasing order");
+        }
+        if ((min > means[0]) || (max < means[n - 1]))
+            throw new IllegalArgumentException("means must lie within [min, max]");
+        if (!(max > min)) throw new IllegalArgumentException("min must be < max");
+        return midpoints(means.clone(), counts, min, max);
+    }
+
+    /**
+     * The CDF of a sorted sample, given as its distinct values and the number of times each occurs.
+     * As with {@link #fromCentroids(double[], double[], double, double)}, the CDF at each value is estimated
+     * at the middle of its step, which is the least biased smooth estimate of the step function.
+     * @param values the distinct sample values, in increasing order
+     * @param counts the number of times each value occurs, each &gt; 0, or null for counts of 1
+     * @return one CDF point for each value
+     */
+    public static MonotonicSplineCDF fromSamples(double[] values, double[] counts) {
+        final int n = values.length;
+        if (n == 0) throw new IllegalArgumentException("values must not be empty");
+        if (counts == null) {
+            counts = new double[n];
+            Arrays.fill(counts, 1.0);
+        }
+        for (int j = 1; j < n; ++j)
+            if (!(values[j] > values[j - 1]))
+                throw new IllegalArgumentException("values must be sorted in increasing order");
+        return fromCentroids(values, counts, values[0], values[n - 1]);
+    }
+
+    /**
+     * The CDF of a histogram. The CDF is known at each bin edge, as the fraction of the total count in the
+     * bins below it; each edge is weighted by the mean count of its neighbouring bins, and edges with no
+     * samples on either side are omitted.
+     * @param edges the bin edges, in increasing order, one more than the number of bins
+     * @param counts the number of samples in each bin, each &ge; 0, with a total &gt; 0
+     * @return one CDF point for each edge next to a non-empty bin
+     */
+    public static MonotonicSplineCDF fromHistogram(double[] edges, double[] counts) {
+        final int k = counts.length;
+        if (edges.length != k + 1) throw new DimensionMismatchException(edges.length, k + 1);
+        if (k == 0) throw new IllegalArgumentException("histogram must have at least one bin");
+        double total = 0.0;
+        for (int j = 0; j < k; ++j) {
+            if (!(counts[j] >= 0.0)) throw new IllegalArgumentException("counts must be >= 0");
+            if (!(edges[j + 1] > edges[j]))
+                throw new IllegalArgumentException("edges must be sorted in increasing order");
+            total += counts[j];
+        }
+        if (!(total > 0.0)) throw new IllegalArgumentException("histogram must not be empty");
+        double[] x = new double[k + 1];
+        double[] y = new double[k + 1];
+        double[] w = new double[k + 1];
+        int d = 0;
+        double cum = 0.0;
+        for (int j = 0; j <= k; ++j) {
+            double below = (j > 0) ? counts[j - 1] : 0.0;
+            double above = (j < k) ? counts[j] : 0.0;
+            cum += below;
+            if (below + above == 0.0) continue;
+            x[d] = edges[j];
+            y[d] = cum / total;
+            w[d] = 0.5 * (below + above);
+            ++d;
+        }
+        return new MonotonicSplineCDF(
+            Arrays.copyOf(x, d), Arrays.copyOf(y, d), Arrays.copyOf(w, d), edges[0], edges[k]);
+    }
+
+    // CDF points at the middle of each step, for sorted locations x with counts c
+    private static MonotonicSplineCDF midpoints(double[] x, double[] c, double min, double max) {
+        final int n = x.length;
+        double total = 0.0;
+        for (int j = 0; j < n; ++j) total += c[j];
+        double[] y = new double[n];
+        double cum = 0.0;
+        for (int j = 0; j < n; ++j) {
+            y[j] = (cum + 0.5 * c[j]) / total;
+            cum += c[j];
+        }
+        return new MonotonicSplineCDF(x, y, c.clone(), min, max);
+    }
+
+    /** the number of CDF points */
+    public int size() {
+        return x.length;
+    }
+
+    /** a copy of the x values of the CDF points, in non-decreasing order */
+    public double[] getX() {
+        return x.clone();
+    }
+
+    /** a copy of the estimated CDF values at the points */
+    public double[] getY() {
+        return y.clone();
+    }
+
+    /** a copy of the weights of the points: the number of samples each represents */
+    public double[] getW() {
+        return w.clone();
+    }
+
+    /** the smallest value of the distribution, where a fitted CDF is 0 */
+    public double getXMin() {
+        return xmin;
+    }
+
+    /** the largest value of the distribution, where a fitted CDF is 1 */
+    public double getXMax() {
+        return xmax;
+    }
+}
@@ -0,0 +1,714 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+
+import org.apache.commons.math3.optim.OptimizationData;
+
+import org.apache.commons.math3.analysis.interpolation.UnivariateInterpolator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.fitMonotoneSpline;
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.option;
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.refine;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineInterpolator.M_MINIMUM;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineInterpolator.M_DEFAULT;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineInterpolator.LAMBDA_DEFAULT;
+
+/**
+ * An immutable monotonic spline fitting configuration: the number of intervals (m), the smoothing
+ * parameter (lambda), the interpolation domain, constraints and options. A configuration never changes
+ * after it is built, and fitting never modifies it, so a single instance can be shared by any number of
+ * threads fitting different data concurrently.
+ * <p>
+ * Build a configuration with {@link #builder()}:
+ * <pre>
+ * MonotonicSplineConfig config = MonotonicSplineConfig.builder()
+ *     .setM(10)
+ *     .setBounds(0.0, 1.0)
+ *     .addEqualityConstraint(0.0, 0.0)
+ *     .build();
+ * PolynomialSplineFunction s = config.interpolate(x, y);
+ * </pre>
+ * Options passed with {@link Builder#addInterpolationOptions(OptimizationData...)} are shared by every fit,
+ * and should themselves be immutable.
+ */
+public final class MonotonicSplineConfig implements UnivariateInterpolator {
+    private final int m;
+    private final double lambda;
+    private final double xmin;
+    private final double xmax;
+    private final double[] xC;
+    private final double[] yC;
+    private final double[] xgC;
+    private final double[] ygC;
+    private final double[] xltC;
+    private final double[] yltC;
+    private final double[] ltCF;
+    // never modified after construction
+    private final ArrayList<OptimizationData> fitOpts;
+
+    private MonotonicSplineConfig(Builder b) {
+        this.m = b.m;
+        this.lambda = b.lambda;
+        this.xmin = b.xmin;
+        this.xmax = b.xmax;
+        this.xC = doubles(b.constraintX);
+        this.yC = doubles(b.constraintY);
+        this.xgC = doubles(b.gConstraintX);
+        this.ygC = doubles(b.gConstraintY);
+        this.xltC = doubles(b.ltConstraintX);
+        this.yltC = doubles(b.ltConstraintY);
+        this.ltCF = doubles(b.ltConstraintF);
+        this.fitOpts = new ArrayList<OptimizationData>(b.fitOpts);
+    }
+
+    /** @return a new builder, with default settings */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** @return a new builder, initialized with the settings of this configuration */
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.m = m;
+        b.lambda = lambda;
+        b.xmin = xmin;
+        b.xmax = xmax;
+        for (int j = 0; j < xC.length; ++j) b.addEqualityConstraint(xC[j], yC[j]);
+        for (int j = 0; j < xgC.length; ++j) b.addGradientEqualityConstraint(xgC[j], ygC[j]);
+        for (int j = 0; j < xltC.length; ++j) {
+            b.ltConstraintX.add(xltC[j]);
+            b.ltConstraintY.add(yltC[j]);
+            b.ltConstraintF.add(ltCF[j]);
+        }
+        b.fitOpts.addAll(fitOpts);
+        return b;
+    }
+
+    /** the number of spline intervals (m) */
+    public int getM() {
+        return m;
+    }
+
+    /** the smoothing parameter (lambda) */
+    public double getLambda() {
+        return lambda;
+    }
+
+    /** the lower bound of the interpolation domain, or NaN if it is taken from the data */
+    public double getXMin() {
+        return xmin;
+    }
+
+    /** the upper bound of the interpolation domain, or NaN if it is taken from the data */
+    public double getXMax() {
+        return xmax;
+    }
+
+    /** true if the interpolation domain is declared, rather than taken from the data */
+    public boolean hasBounds() {
+        return !Double.isNaN(xmin) && !Double.isNaN(xmax);
+    }
+
+    /**
+     * Release the knots, smoothing matrices and monotonicity constraints that are cached and shared by fits
+     * with declared bounds. They are rebuilt when they are next needed.
+     */
+    public static void clearPlanCache() {
+        FitPlan.clearCache();
+    }
+
+    /**
+     * Given data (x1, y1), (x2, y2)..., fit an interpolating spline that is constrained to be monotonic.
+     * Each data point has weight 1.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @return a polynomial spline that interpolates the data, and is monotonic non-decreasing over its
+     * interpolation domain.
+     * <p>
+     * NOTE: the number of data provided must be &ge; (m + 3).
+     */
+    public PolynomialSplineFunction interpolate(double x[], double y[]) {
+        return fit(x, y, null, null).toPolynomialSplineFunction();
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic to data (x, y), with weights w.
+     * If the interpolation domain is not declared, it is taken from the minimum and maximum of x.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weight of each data point, each &gt; 0, or null for weights of 1
+     * @param previous a previous fit to warm-start from, or null to start from scratch.
+     * See {@link MonotonicSplineInterpolator#fit(double[], double[], MonotonicSplineFit)}.
+     * @return the fitted spline
+     */
+    public MonotonicSplineFit fit(double x[], double y[], double[] w, MonotonicSplineFit previous) {
+        w = weights(x, y, w);
+        double[] bounds = bounds(x);
+        final double lo = bounds[0];
+        final double hi = bounds[1];
+
+        return fitMonotoneSpline(x, y, plan(m, lo, hi), lambda, w,
+            xC, yC, xgC, ygC, xltC, yltC, ltCF,
+            fitOpts, warm(previous, m, lo, hi));
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic to reduced data. If the interpolation domain is not
+     * declared, it is taken from the range of the original data, rather than of the reduced points.
+     * @param bins the reduced data, which must number at least (m + 3) points
+     * @param previous a previous fit to warm-start from, or null to start from scratch
+     * @return the fitted spline
+     */
+    public MonotonicSplineFit fit(MonotonicSplineBins bins, MonotonicSplineFit previous) {
+        final int M = m + 3;
+        if (bins.size() < M)
+            throw new IllegalArgumentException(String.format("data length (%d) must be >= %d", bins.size(), M));
+        final double lo = Double.isNaN(xmin) ? bins.xmin : xmin;
+        final double hi = Double.isNaN(xmax) ? bins.xmax : xmax;
+        if (hi <= lo) throw new IllegalArgumentException("xMin must be < xMax");
+        return fitMonotoneSpline(bins.x, bins.y, plan(m, lo, hi), lambda, bins.w,
+            xC, yC, xgC, ygC, xltC, yltC, ltCF,
+            fitOpts, warm(previous, m, lo, hi));
+    }
+
+    /**
+     * Fit a cumulative distribution function (CDF) to the points of an empirical CDF. In addition to this
+     * configuration's constraints, the fit is constrained to equal 0 at the lower bound of the interpolation
+     * domain and 1 at its upper bound, so it is non-decreasing from 0 to 1. If the domain is not declared,
+     * it is the range of the distribution, from {@link MonotonicSplineCDF#getXMin()} to
+     * {@link MonotonicSplineCDF#getXMax()}.
+     * @param cdf the empirical CDF, which must have at least (m + 3) points
+     * @param previous a previous fit to warm-start from, or null to start from scratch
+     * @return the fitted CDF
+     */
+    public MonotonicSplineFit fit(MonotonicSplineCDF cdf, MonotonicSplineFit previous) {
+        final int M = m + 3;
+        if (cdf.size() < M)
+            throw new IllegalArgumentException(String.format("data length (%d) must be >= %d", cdf.size(), M));
+        final double lo = Double.isNaN(xmin) ? cdf.xmin : xmin;
+        final double hi = Double.isNaN(xmax) ? cdf.xmax : xmax;
+        if (hi <= lo) throw new IllegalArgumentException("xMin must be < xMax");
+        final int c = xC.length;
+        double[] xCDF = Arrays.copyOf(xC, c + 2);
+        double[] yCDF = Arrays.copyOf(yC, c + 2);
+        xCDF[c] = lo;
+        yCDF[c] = 0.0;
+        xCDF[c + 1] = hi;
+        yCDF[c + 1] = 1.0;
+        return fitMonotoneSpline(cdf.x, cdf.y, plan(m, lo, hi), lambda, cdf.w,
+            xCDF, yCDF, xgC, ygC, xltC, yltC, ltCF,
+            fitOpts, warm(previous, m, lo, hi));
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic to data (x, y) with weights w, choosing the number
+     * of intervals automatically. Fitting starts with this configuration's m, and doubles it while the
+     * Bayesian information criterion
+     * <pre>
+     * BIC(m) = n log(SSE(m) / n) + edf(m) log(n)
+     * </pre>
+     * improves, where SSE is the weighted sum of squared residuals and edf is the effective degrees of
+     * freedom (see {@link #selectLambda(double[], double[], double[], double[])}). Each finer fit is
+     * warm-started from the coarser one, refined by inserting a knot at the middle of each interval, which
+     * represents the coarser spline exactly on the finer grid.
+     * <p>
+     * Refinement stops when the criterion no longer improves, or when doubling m would exceed mMax or
+     * leave fewer than (m + 3) data points, and the best fit so far is returned. Its number of intervals
+     * is {@link MonotonicSplineFit#getM()}. All other settings are taken from this configuration.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weight of each data point, each &gt; 0, or null for weights of 1
+     * @param mMax the largest number of intervals to try, &ge; this configuration's m
+     * @return the fitted spline with the chosen number of intervals
+     */
+    public MonotonicSplineFit fitAdaptive(double x[], double y[], double[] w, int mMax) {
+        if (mMax < m)
+            throw new IllegalArgumentException(String.format("mMax must be >= m (%d)", m));
+        w = weights(x, y, w);
+        double[] bounds = bounds(x);
+        final int n = x.length;
+        final double logn = Math.log((double)n);
+        MonotonicSplineFit best = null;
+        double bestBIC = Double.POSITIVE_INFINITY;
+        double[] warm = null;
+        for (int mk = m; (mk <= mMax) && (n >= mk + 3); mk *= 2) {
+            GramAccumulator data = accumulate(x, y, w, mk, bounds[0], bounds[1]);
+            FitPlan plan = plan(mk, bounds[0], bounds[1]);
+            MonotonicSplineFit fit = fit(data, plan, lambda, warm);
+            double edf = data.edf(plan, lambda);
+            // an exact fit has no residual to penalize against
+            double bic = n * Math.log(Math.max(data.sse(fit.tau), Double.MIN_NORMAL) / n) + edf * logn;
+            // the first fit is always kept, even if its criterion is not finite
+            if ((best != null) && !(bic < bestBIC)) break;
+            best = fit;
+            bestBIC = bic;
+            warm = refine(fit.tau);
+        }
+        return best;
+    }
+
+    /**
+     * Choose the smoothing parameter (lambda) for data (x, y) with weights w, from a list of candidates,
+     * by generalized cross-validation (GCV). The data are folded into the fitting objective once; then a
+     * spline is fit for each candidate in increasing order, each fit warm-started from the one before it,
+     * and scored by
+     * <pre>
+     * GCV(lambda) = n SSE(lambda) / (n - edf(lambda))<sup>2</sup>
+     * </pre>
+     * where SSE is the weighted sum of squared residuals, and edf is the effective degrees of freedom:
+     * the trace of the linear smoother that the fit would be without its monotonicity and other
+     * constraints. All other settings, including the interpolation domain, are taken from this configuration.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weight of each data point, each &gt; 0, or null for weights of 1
+     * @param lambdas the candidate smoothing parameters, each &gt; 0, in any order. See {@link #lambdaGrid(double, double, int)}.
+     * @return the candidates, their scores, and the fit with the best lambda
+     */
+    public MonotonicSplineLambdaSelection selectLambda(double[] x, double[] y, double[] w, double[] lambdas) {
+        w = weights(x, y, w);
+        double[] bounds = bounds(x);
+        return selectLambda(accumulate(x, y, w, m, bounds[0], bounds[1]), lambdas);
+    }
+
+    /**
+     * Choose the smoothing parameter (lambda) for data (x, y) with weights w, from a list of candidates,
+     * by k-fold cross-validation. Data point j is held out of fold (j % folds), so data that are sorted by
+     * x are spread evenly over the folds. For each candidate, in increasing order, a spline is fit to the
+     * data outside each fold, warm-started from that fold's fit for the previous candidate, and scored on
+     * the held-out data. The score of a candidate is the weighted mean squared error over all of the
+     * held-out data. The returned fit is to all of the data, with the best candidate, and is not
+     * warm-started from any fold's fit.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weight of each data point, each &gt; 0, or null for weights of 1
+     * @param lambdas the candidate smoothing parameters, each &gt; 0, in any order
+     * @param folds the number of folds, &ge; 2. The data outside each fold must number at least (m + 3).
+     * @return the candidates, their scores, and the fit with the best lambda
+     */
+    public MonotonicSplineLambdaSelection selectLambda(double[] x, double[] y, double[] w, double[] lambdas, int folds) {
+        if (folds < 2) throw new IllegalArgumentException("folds must be >= 2");
+        w = weights(x, y, w);
+        final int n = x.length;
+        if (folds > n) throw new IllegalArgumentException(String.format("folds must be <= data length (%d)", n));
+        final double[] ls = candidates(lambdas);
+        double[] bounds = bounds(x);
+        GramAccumulator all = new GramAccumulator(m, bounds[0], bounds[1]);
+        GramAccumulator[] held = new GramAccumulator[folds];
+        for (int f = 0; f < folds; ++f) held[f] = all.emptyCopy();
+        double wsum = 0.0;
+        for (int j = 0; j < n; ++j) {
+            held[j % folds].add(x[j], y[j], w[j]);
+            wsum += w[j];
+        }
+        GramAccumulator[] train = new GramAccumulator[folds];
+        for (int f = 0; f < folds; ++f) {
+            all.merge(held[f]);
+            train[f] = all.emptyCopy();
+            for (int g = 0; g < folds; ++g) if (g != f) train[f].merge(held[g]);
+        }
+        double[] scores = new double[ls.length];
+        final FitPlan plan = plan(m, bounds[0], bounds[1]);
+        double[][] warm = new double[folds][];
+        int best = 0;
+        for (int i = 0; i < ls.length; ++i) {
+            double sse = 0.0;
+            for (int f = 0; f < folds; ++f) {
+                MonotonicSplineFit fit = fit(train[f], plan, ls[i], warm[f]);
+                warm[f] = fit.tau;
+                sse += held[f].sse(fit.tau);
+            }
+            scores[i] = sse / wsum;
+            if ((i == 0) || (scores[i] < scores[best])) best = i;
+        }
+        // the fold fits solve different problems, so the final fit starts from scratch
+        return new MonotonicSplineLambdaSelection(ls, scores, best, fit(all, plan, ls[best], null));
+    }
+
+    /**
+     * Choose the smoothing parameter (lambda) for the data summarized by a sketch, from a list of candidates,
+     * by generalized cross-validation, as described for
+     * {@link #selectLambda(double[], double[], double[], double[])}. Requirements on the sketch are the same
+     * as for {@link #fit(MonotonicSplineSketch, MonotonicSplineFit)}.
+     * @param sketch the summarized data
+     * @param lambdas the candidate smoothing parameters, each &gt; 0, in any order
+     * @return the candidates, their scores, and the fit with the best lambda
+     */
+    public MonotonicSplineLambdaSelection selectLambda(MonotonicSplineSketch sketch, double[] lambdas) {
+        return selectLambda(check(sketch), lambdas);
+    }
+
+    /**
+     * A geometric grid of candidate smoothing parameters, for {@link #selectLambda(double[], double[], double[], double[])}.
+     * @param lo the smallest candidate, &gt; 0
+     * @param hi the largest candidate, &ge; lo
+     * @param count the number of candidates, &ge; 1
+     * @return count values from lo to hi, with a constant ratio between neighbours
+     */
+    public static double[] lambdaGrid(double lo, double hi, int count) {
+        if (!(lo > 0.0)) throw new IllegalArgumentException("lambda must be > 0");
+        if (!(hi >= lo)) throw new IllegalArgumentException("lo must be <= hi");
+        if (count < 1) throw new IllegalArgumentException("count must be >= 1");
+        double[] grid = new double[count];
+        grid[0] = lo;
+        final double r = Math.log(hi / lo);
+        for (int j = 1; j < count; ++j) grid[j] = lo * Math.exp(r * (double)j / (double)(count - 1));
+        // exactly hi, despite rounding
+        if (count > 1) grid[count - 1] = hi;
+        return grid;
+    }
+
+    /**
+     * Fit many independent curves with this configuration, in parallel on the common fork/join pool.
+     * See {@link #interpolateAll(double[][], double[][], double[][], Executor)}.
+     * @param xs the x data of each curve
+     * @param ys the y data of each curve
+     * @return the fitted splines, and the error of each curve that could not be fit
+     */
+    public MonotonicSplineBatch interpolateAll(double[][] xs, double[][] ys) {
+        return interpolateAll(xs, ys, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Fit many independent curves with this configuration, in parallel. Curve j is fit to data
+     * (xs[j], ys[j]) with weights ws[j], exactly as by {@link #fit(double[], double[], double[], MonotonicSplineFit)}.
+     * Fits share the structures that depend only on the configuration, and curves are handed to the
+     * executor in groups, to amortize the cost of scheduling small fits.
+     * <p>
+     * A curve whose fit fails does not stop the others: its exception is recorded in the result.
+     * @param xs the x data of each curve
+     * @param ys the y data of each curve
+     * @param ws the weights of each curve, or null for weights of 1. Individual elements may also be null.
+     * @param executor runs the fits
+     * @return the fitted splines, and the error of each curve that could not be fit
+     */
+    public MonotonicSplineBatch interpolateAll(double[][] xs, double[][] ys, double[][] ws, Executor executor) {
+        final int n = xs.length;
+        if (ys.length != n) throw new DimensionMismatchException(ys.length, n);
+        if ((ws != null) && (ws.length != n)) throw new DimensionMismatchException(ws.length, n);
+        final PolynomialSplineFunction[] splines = new PolynomialSplineFunction[n];
+        final RuntimeException[] errors = new RuntimeException[n];
+        ArrayList<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>();
+        for (int lo = 0; lo < n; lo += BATCH_GRAIN) {
+            final int b = lo;
+            final int e = Math.min(n, lo + BATCH_GRAIN);
+            tasks.add(CompletableFuture.runAsync(new Runnable() {
+                public void run() {
+                    for (int j = b; j < e; ++j) {
+                        try {
+                            double[] w = (ws == null) ? null : ws[j];
+                            splines[j] = fit(xs[j], ys[j], w, null).toPolynomialSplineFunction();
+                        } catch (RuntimeException ex) {
+                            errors[j] = ex;
+                        }
+                    }
+                }
+            }, executor));
+        }
+        // completion of each task also publishes the results it wrote
+        for (CompletableFuture<Void> task: tasks) task.join();
+        return new MonotonicSplineBatch(splines, errors);
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic to the data summarized by a sketch.
+     * The sketch must have this configuration's number of intervals (m), and its interpolation
+     * domain if one is declared.
+     * @param sketch the summarized data
+     * @param previous a previous fit to warm-start from, or null to start from scratch
+     * @return the fitted spline
+     */
+    public MonotonicSplineFit fit(MonotonicSplineSketch sketch, MonotonicSplineFit previous) {
+        return fit(check(sketch), previous);
+    }
+
+    /**
+     * Begin an incremental fit with this configuration, which must declare the interpolation domain.
+     * See {@link MonotonicSplineInterpolator#accumulator()}.
+     * @return a new accumulator with no data
+     */
+    public MonotonicSplineAccumulator accumulator() {
+        if (!hasBounds())
+            throw new IllegalStateException("interpolation bounds must be declared with setBounds");
+        return new MonotonicSplineAccumulator(this);
+    }
+
+    /**
+     * Create an empty sketch with this configuration's number of intervals (m) and interpolation domain,
+     * which must be declared.
+     * @return a new sketch with no data
+     */
+    public MonotonicSplineSketch sketch() {
+        if (!hasBounds())
+            throw new IllegalStateException("interpolation bounds must be declared with setBounds");
+        return new MonotonicSplineSketch(m, xmin, xmax);
+    }
+
+    // fit accumulated statistics, whose m and bounds have already been checked
+    MonotonicSplineFit fit(GramAccumulator data, MonotonicSplineFit previous) {
+        return fit(data, plan(data.m, data.xmin, data.xmax), lambda, warm(previous, data.m, data.xmin, data.xmax));
+    }
+
+    private MonotonicSplineFit fit(GramAccumulator data, FitPlan plan, double lambda, double[] warm) {
+        if (data.n < data.M)
+            throw new IllegalArgumentException(String.format("data length (%d) must be >= %d", data.n, data.M));
+        return fitMonotoneSpline(data, plan, lambda,
+            xC, yC, xgC, ygC, xltC, yltC, ltCF,
+            fitOpts, warm);
+    }
+
+    // accumulate (x, y, w) for m intervals over [lo, hi], in parallel if that option is set
+    private GramAccumulator accumulate(double[] x, double[] y, double[] w, int m, double lo, double hi) {
+        GramAccumulator data = new GramAccumulator(m, lo, hi);
+        ParallelAssembly parallel = option(fitOpts, ParallelAssembly.class);
+        if (parallel != null) {
+            data.add(x, y, w, parallel.pool, parallel.grain);
+        } else {
+            data.add(x, y, w);
+        }
+        return data;
+    }
+
+    // GCV over accumulated statistics, whose m and bounds have already been checked
+    private MonotonicSplineLambdaSelection selectLambda(GramAccumulator data, double[] lambdas) {
+        final double[] ls = candidates(lambdas);
+        final double n = (double)data.n;
+        double[] scores = new double[ls.length];
+        MonotonicSplineFit bestFit = null;
+        final FitPlan plan = plan(data.m, data.xmin, data.xmax);
+        double[] warm = null;
+        int best = 0;
+        for (int i = 0; i < ls.length; ++i) {
+            MonotonicSplineFit fit = fit(data, plan, ls[i], warm);
+            warm = fit.tau;
+            double dof = n - data.edf(plan, ls[i]);
+            // a smoother with as many degrees of freedom as data cannot be scored
+            scores[i] = (dof > 0.0) ? n * data.sse(fit.tau) / (dof * dof) : Double.POSITIVE_INFINITY;
+            if ((i == 0) || (scores[i] < scores[best])) {
+                best = i;
+                bestFit = fit;
+            }
+        }
+        return new MonotonicSplineLambdaSelection(ls, scores, best, bestFit);
+    }
+
+    // the statistics of a sketch, checked against this configuration's m and bounds
+    private GramAccumulator check(MonotonicSplineSketch sketch) {
+        GramAccumulator data = sketch.data;
+        if (data.m != m)
+            throw new IllegalArgumentException(String.format("sketch m (%d) does not match m (%d)", data.m, m));
+        if ((!Double.isNaN(xmin) && (data.xmin != xmin)) || (!Double.isNaN(xmax) && (data.xmax != xmax)))
+            throw new IllegalArgumentException("sketch bounds do not match interpolation bounds");
+        return data;
+    }
+
+    // check the lengths of (x, y, w) and the weights, which default to 1
+    private double[] weights(double[] x, double[] y, double[] w) {
+        final int n = x.length;
+        final int M = m + 3;
+        if (n < M) throw new IllegalArgumentException(String.format("data length (%d) must be >= %d", n, M));
+        if (y.length != n) throw new DimensionMismatchException(y.length, n);
+        if (w == null) {
+            w = new double[n];
+            Arrays.fill(w, 1.0);
+        }
+        if (w.length != n) throw new DimensionMismatchException(w.length, n);
+        for (int j = 0; j < n; ++j)
+            if (w[j] <= 0.0) throw new IllegalArgumentException("weights (w) must be > 0");
+        return w;
+    }
+
+    // the fit plan for m intervals over [lo, hi], which is only cached when the bounds are declared
+    private FitPlan plan(int m, double lo, double hi) {
+        return hasBounds() ? FitPlan.of(m, lo, hi) : FitPlan.uncached(m, lo, hi);
+    }
+
+    // the interpolation domain {lo, hi}, taken from x where it is not declared
+    private double[] bounds(double[] x) {
+        final int n = x.length;
+        double lo = xmin;
+        double hi = xmax;
+        if (Double.isNaN(lo)) {
+            lo = x[0];
+            for (int j = 1; j < n; ++j) if (x[j] < lo) lo = x[j];
+        }
+        if (Double.isNaN(hi)) {
+            hi = x[0];
+            for (int j = 1; j < n; ++j) if (x[j] > hi) hi = x[j];
+        }
+        if (hi <= lo) throw new IllegalArgumentException("xMin must be < xMax");
+        return new double[] { lo, hi };
+    }
+
+    // a sorted copy of candidate lambdas
+    private static double[] candidates(double[] lambdas) {
+        if (lambdas.length == 0) throw new IllegalArgumentException("lambdas must not be empty");
+        double[] ls = lambdas.clone();
+        Arrays.sort(ls);
+        if (!(ls[0] > 0.0)) throw new IllegalArgumentException("lambda must be > 0");
+        return ls;
+    }
+
+    // the coefficients of a previous fit, if it can warm-start a fit with these parameters
+    private static double[] warm(MonotonicSplineFit previous, int m, double xmin, double xmax) {
+        if ((previous == null) || !previous.compatible(m, xmin, xmax)) return null;
+        return previous.tau;
+    }
+
+    // the number of curves fit by each task of a batch
+    private static final int BATCH_GRAIN = 8;
+
+    private static double[] doubles(ArrayList<Double> list) {
+        double[] a = new double[list.size()];
+        for (int j = 0; j < a.length; ++j) a[j] = list.get(j);
+        return a;
+    }
+
+    /**
+     * Builds a {@link MonotonicSplineConfig}. Builders are not thread-safe, but the configurations they build are.
+     */
+    public static final class Builder {
+        private int m = M_DEFAULT;
+        private double lambda = LAMBDA_DEFAULT;
+        private double xmin = Double.NaN;
+        private double xmax = Double.NaN;
+        private final ArrayList<Double> constraintX = new ArrayList<Double>();
+        private final ArrayList<Double> constraintY = new ArrayList<Double>();
+        private final ArrayList<Double> gConstraintX = new ArrayList<Double>();
+        private final ArrayList<Double> gConstraintY = new ArrayList<Double>();
+        private final ArrayList<Double> ltConstraintX = new ArrayList<Double>();
+        private final ArrayList<Double> ltConstraintY = new ArrayList<Double>();
+        private final ArrayList<Double> ltConstraintF = new ArrayList<Double>();
+        private final ArrayList<OptimizationData> fitOpts = new ArrayList<OptimizationData>();
+
+        private Builder() {
+        }
+
+        /** @return a configuration with the current settings of this builder */
+        public MonotonicSplineConfig build() {
+            return new MonotonicSplineConfig(this);
+        }
+
+        /**
+         * Set the number of piecewise polynomial intervals over the interpolation domain.
+         * See {@link MonotonicSplineInterpolator#setM(int)}.
+         * @param m the number of piecewise intervals, &ge; 4
+         * @return this builder
+         */
+        public Builder setM(int m) {
+            if (m < M_MINIMUM)
+                throw new IllegalArgumentException(String.format("m must be >= %d", M_MINIMUM));
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * Set the smoothing parameter for the spline fitting.
+         * @param lambda the smoothing parameter, &gt; 0. Defaults to 1.
+         * @return this builder
+         */
+        public Builder setLambda(double lambda) {
+            if (lambda <= 0.0)
+                throw new IllegalArgumentException("lambda must be > 0");
+            this.lambda = lambda;
+            return this;
+        }
+
+        /**
+         * Declare the interpolation domain. If it is not declared, each fit takes it from its own data.
+         * @param xMin the lower bound of the domain
+         * @param xMax the upper bound of the domain
+         * @return this builder
+         */
+        public Builder setBounds(double xMin, double xMax) {
+            if (xMax <= xMin)
+                throw new IllegalArgumentException("xMin must be < xMax");
+            xmin = xMin;
+            xmax = xMax;
+            return this;
+        }
+
+        /**
+         * Add a hard equality constraint that the interpolation s(x) = y.
+         * @param x the x value of the constraint
+         * @param y the value that the interpolation s(x) is constrained to equal.
+         * @return this builder
+         */
+        public Builder addEqualityConstraint(double x, double y) {
+            constraintX.add(x);
+            constraintY.add(y);
+            return this;
+        }
+
+        /**
+         * Add a hard equality constraint that the derivative of interpolation s'(x) = dydx.
+         * @param x the x value of the constraint
+         * @param dydx the value that the interpolation derivative s'(x) is constrained to equal, &ge; 0.
+         * @return this builder
+         */
+        public Builder addGradientEqualityConstraint(double x, double dydx) {
+            if (dydx < 0.0)
+                throw new IllegalArgumentException("dydx cannot be negative for monotone spline fitting");
+            gConstraintX.add(x);
+            gConstraintY.add(dydx);
+            return this;
+        }
+
+        /**
+         * Add an inequality constraint to the interpolation of the form s(x) &lt; y
+         * @param x the x value of the inequality constraint
+         * @param y the upper bound of the constraint
+         * @return this builder
+         */
+        public Builder addLessThanConstraint(double x, double y) {
+            ltConstraintX.add(x);
+            ltConstraintY.add(y);
+            ltConstraintF.add(1.0);
+            return this;
+        }
+
+        /**
+         * Add an inequality constraint to the interpolation of the form s(x) &gt; y
+         * @param x the x value of the inequality constraint
+         * @param y the lower bound of the constraint
+         * @return this builder
+         */
+        public Builder addGreaterThanConstraint(double x, double y) {
+            ltConstraintX.add(x);
+            ltConstraintY.add(y);
+            ltConstraintF.add(-1.0);
+            return this;
+        }
+
+        /**
+         * Pass additional options to the internal interpolation routines.
+         * See {@link MonotonicSplineInterpolator#addInterpolationOptions(OptimizationData...)}.
+         * @param opts options for the interpolation routines
+         * @return this builder
+         */
+        public Builder addInterpolationOptions(OptimizationData... opts) {
+            for (OptimizationData opt: opts) fitOpts.add(opt);
+            return this;
+        }
+    }
+}
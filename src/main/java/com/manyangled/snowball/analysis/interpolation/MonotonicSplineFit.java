@@ -0,0 +1,147 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineInterpolator.M_MINIMUM;
+
+/**
+ * The result of fitting a monotonic spline: the (m + 3) B-spline coefficients (tau) and the
+ * interpolation domain. A fit can be converted to a {@link PolynomialSplineFunction}, or to a
+ * {@link MonotonicSplineFunction} for faster evaluation, and can be
+ * passed back to {@link MonotonicSplineInterpolator#fit(double[], double[], MonotonicSplineFit)} to
+ * warm-start a refit of the same curve to new or updated data. Fits are stored and loaded in a compact
+ * binary form with {@link MonotonicSplineFormat}.
+ * <p>
+ * A fit returned by the fitting methods also reports diagnostics of the solve: the final value of the
+ * objective, the number of solver iterations and the time spent finding a feasible starting point.
+ * The polynomial spline form is built only when it is first requested, and is then cached.
+ */
+public class MonotonicSplineFit {
+    final int m;
+    final double xmin;
+    final double xmax;
+    final double alpha;
+    final double[] tau;
+    final double objective;
+    final int iterations;
+    final long phase1Nanos;
+    // built on first use; PolynomialSplineFunction is immutable, so a race only builds it twice
+    private volatile PolynomialSplineFunction psf = null;
+
+    /**
+     * @param tau the B-spline coefficients. The number of intervals (m) is (tau.length - 3).
+     * @param xMin the lower bound of the interpolation domain
+     * @param xMax the upper bound of the interpolation domain
+     */
+    public MonotonicSplineFit(double[] tau, double xMin, double xMax) {
+        this(tau, xMin, xMax, Double.NaN, -1, -1L);
+    }
+
+    MonotonicSplineFit(double[] tau, double xMin, double xMax, double objective, int iterations, long phase1Nanos) {
+        if (tau.length < (M_MINIMUM + 3))
+            throw new IllegalArgumentException(String.format("coefficient length must be >= %d", M_MINIMUM + 3));
+        if (xMax <= xMin)
+            throw new IllegalArgumentException("xMin must be < xMax");
+        this.m = tau.length - 3;
+        this.xmin = xMin;
+        this.xmax = xMax;
+        this.alpha = (double)m / (xMax - xMin);
+        this.tau = tau.clone();
+        this.objective = objective;
+        this.iterations = iterations;
+        this.phase1Nanos = phase1Nanos;
+    }
+
+    /** the number of spline intervals (m) */
+    public int getM() {
+        return m;
+    }
+
+    /** the lower bound of the interpolation domain */
+    public double getXMin() {
+        return xmin;
+    }
+
+    /** the upper bound of the interpolation domain */
+    public double getXMax() {
+        return xmax;
+    }
+
+    /** a copy of the (m + 3) B-spline coefficients */
+    public double[] getCoefficients() {
+        return tau.clone();
+    }
+
+    /** the reciprocal of the knot spacing, m / (xMax - xMin) */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /** the (m + 1) knots of the spline intervals, from xMin to xMax */
+    public double[] getKnots() {
+        double[] knot = new double[m + 1];
+        // the same knots as toPolynomialSplineFunction()
+        for (int j = 0; j <= m; ++j) knot[j] = xmin + ((double)j / alpha);
+        return knot;
+    }
+
+    /**
+     * The value of the quadratic fitting objective at the solution, which combines the weighted squared
+     * error with lambda times the roughness penalty. NaN if the fit was not produced by a fitting method.
+     */
+    public double getObjective() {
+        return objective;
+    }
+
+    /**
+     * The number of solver iterations: outer iterations (centering steps) of the barrier method, or
+     * iterations of the active set method when {@link ActiveSetEngine} is selected. Steps taken to find a
+     * feasible starting point are not included. The Newton steps within each centering step are reported
+     * to a {@link FitListener}. -1 if the fit was not produced by a fitting method.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * The time in nanoseconds spent finding a feasible starting point, which is 0 when the
+     * starting point did not need a separate solve. -1 if the fit was not produced by a fitting method.
+     */
+    public long getPhase1Nanos() {
+        return phase1Nanos;
+    }
+
+    /** the fitted spline as a polynomial spline function, built on first use */
+    public PolynomialSplineFunction toPolynomialSplineFunction() {
+        PolynomialSplineFunction f = psf;
+        if (f == null) {
+            f = MSISupport.polynomialSplineFunction(tau, alpha, xmin);
+            psf = f;
+        }
+        return f;
+    }
+
+    /** the fitted spline, for fast evaluation */
+    public MonotonicSplineFunction toFunction() {
+        return new MonotonicSplineFunction(tau, alpha, xmin, xmax);
+    }
+
+    // a fit can warm-start a refit only if it has the same basis functions
+    boolean compatible(int m, double xmin, double xmax) {
+        return (this.m == m) && (this.xmin == xmin) && (this.xmax == xmax);
+    }
+}
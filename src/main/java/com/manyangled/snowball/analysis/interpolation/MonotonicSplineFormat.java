@@ -0,0 +1,176 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact, versioned binary format for fitted monotonic splines.
+ * <p>
+ * A fit is stored as the parameters that {@link MonotonicSplineFit#toPolynomialSplineFunction()} rebuilds
+ * everything else from. Each record is (32 + 8(m + 3)) bytes, little-endian:
+ * <pre>
+ * offset  size        field
+ *  0      4           magic number 0x4d535046 ("MSPF")
+ *  4      2           format version (1)
+ *  6      2           reserved (0)
+ *  8      4           m, the number of spline intervals
+ * 12      4           reserved (0)
+ * 16      8           xmin
+ * 24      8           xmax
+ * 32      8 (m + 3)   the B-spline coefficients tau
+ * </pre>
+ * Records can be concatenated, for example to ship many curves in one file. {@link #read(ByteBuffer)} copies
+ * a record into a {@link MonotonicSplineFit}, while {@link #view(ByteBuffer)}, {@link #views(ByteBuffer)} and
+ * {@link #map(Path)} return {@link MonotonicSplineView} instances that evaluate directly from the buffer.
+ */
+public final class MonotonicSplineFormat {
+    private MonotonicSplineFormat() {
+    }
+
+    /** the first four bytes of every record */
+    public static final int MAGIC = 0x4d535046;
+    /** the format version written by this class */
+    public static final short VERSION = 1;
+    /** the size of the record header, which precedes the coefficients */
+    public static final int HEADER_BYTES = 32;
+
+    static final int VERSION_OFFSET = 4;
+    static final int M_OFFSET = 8;
+    static final int XMIN_OFFSET = 16;
+    static final int XMAX_OFFSET = 24;
+
+    /**
+     * @param m the number of spline intervals
+     * @return the size in bytes of the record for a spline with m intervals
+     */
+    public static int recordBytes(int m) {
+        return HEADER_BYTES + 8 * (m + 3);
+    }
+
+    /**
+     * Write a fit at the current position of a buffer, and advance the position past it.
+     * @param fit the fit to write
+     * @param buf the buffer to write into. Its byte order is not changed; records are always little-endian.
+     */
+    public static void write(MonotonicSplineFit fit, ByteBuffer buf) {
+        final int size = recordBytes(fit.m);
+        final int p = buf.position();
+        if (buf.remaining() < size)
+            throw new IllegalArgumentException(String.format("record needs %d bytes, buffer has %d", size, buf.remaining()));
+        ByteBuffer b = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(p, MAGIC);
+        b.putShort(p + VERSION_OFFSET, VERSION);
+        b.putShort(p + VERSION_OFFSET + 2, (short)0);
+        b.putInt(p + M_OFFSET, fit.m);
+        b.putInt(p + M_OFFSET + 4, 0);
+        b.putDouble(p + XMIN_OFFSET, fit.xmin);
+        b.putDouble(p + XMAX_OFFSET, fit.xmax);
+        for (int k = 0; k < fit.tau.length; ++k) b.putDouble(p + HEADER_BYTES + 8 * k, fit.tau[k]);
+        buf.position(p + size);
+    }
+
+    /**
+     * @param fit the fit to write
+     * @return the record for the fit
+     */
+    public static byte[] toBytes(MonotonicSplineFit fit) {
+        byte[] bytes = new byte[recordBytes(fit.m)];
+        write(fit, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Read the record at the current position of a buffer, and advance the position past it.
+     * @param buf the buffer to read from
+     * @return a fit holding a copy of the record
+     * @throws IllegalArgumentException if the buffer does not hold a valid record at its position
+     */
+    public static MonotonicSplineFit read(ByteBuffer buf) {
+        return view(buf).toFit();
+    }
+
+    /**
+     * A view of the record at the current position of a buffer, which advances the position past it.
+     * The view shares the buffer's content, which must not be modified while the view is in use.
+     * @param buf the buffer to read from
+     * @return a view of the record
+     * @throws IllegalArgumentException if the buffer does not hold a valid record at its position
+     */
+    public static MonotonicSplineView view(ByteBuffer buf) {
+        final int p = buf.position();
+        final int m = check(buf, p);
+        final int size = recordBytes(m);
+        ByteBuffer record = buf.duplicate();
+        record.position(p);
+        record.limit(p + size);
+        buf.position(p + size);
+        return new MonotonicSplineView(record.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Views of all records from the current position of a buffer to its limit, which consumes the buffer.
+     * @param buf a buffer holding concatenated records
+     * @return a view of each record, in order
+     * @throws IllegalArgumentException if the buffer does not hold a sequence of valid records
+     */
+    public static List<MonotonicSplineView> views(ByteBuffer buf) {
+        ArrayList<MonotonicSplineView> vs = new ArrayList<MonotonicSplineView>();
+        while (buf.hasRemaining()) vs.add(view(buf));
+        return vs;
+    }
+
+    /**
+     * Memory-map a file of concatenated records, read-only, and return views of them.
+     * Only the record headers are read, so this is fast even for many large curves.
+     * @param path the file to map
+     * @return a view of each record in the file, in order
+     * @throws IOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the file does not hold a sequence of valid records
+     */
+    public static List<MonotonicSplineView> map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping remains valid after the channel is closed
+            return views(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    // validate the record header at position p of buf, and return m
+    static int check(ByteBuffer buf, int p) {
+        ByteBuffer b = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (b.limit() - p < HEADER_BYTES)
+            throw new IllegalArgumentException("truncated monotonic spline record");
+        if (b.getInt(p) != MAGIC)
+            throw new IllegalArgumentException("not a monotonic spline record");
+        final short version = b.getShort(p + VERSION_OFFSET);
+        if (version != VERSION)
+            throw new IllegalArgumentException(String.format("unsupported monotonic spline format version %d", version));
+        final int m = b.getInt(p + M_OFFSET);
+        if ((m < MonotonicSplineInterpolator.M_MINIMUM) || (m > (Integer.MAX_VALUE - HEADER_BYTES) / 8 - 3))
+            throw new IllegalArgumentException(String.format("invalid number of spline intervals %d", m));
+        if (b.limit() - p < recordBytes(m))
+            throw new IllegalArgumentException("truncated monotonic spline record");
+        if (!(b.getDouble(p + XMIN_OFFSET) < b.getDouble(p + XMAX_OFFSET)))
+            throw new IllegalArgumentException("xMin must be < xMax");
+        return m;
+    }
+}
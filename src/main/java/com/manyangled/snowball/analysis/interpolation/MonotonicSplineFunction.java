@@ -0,0 +1,245 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.apache.commons.math3.exception.DimensionMismatchException;
+
+import org.apache.commons.math3.analysis.differentiation.DerivativeStructure;
+import org.apache.commons.math3.analysis.differentiation.UnivariateDifferentiableFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.standardCoefficientsB3;
+
+/**
+ * A fitted monotonic spline, for fast evaluation.
+ * <p>
+ * This computes the same function as {@link MonotonicSplineFit#toPolynomialSplineFunction()}, but the knots
+ * are uniformly spaced, so the interval containing x is found in constant time instead of by binary search.
+ * The cubic coefficients of all intervals are stored in one flat array and evaluated with Horner's rule,
+ * without allocating. Bulk evaluation at many points, and a faster path for sorted points, are also
+ * provided. Since the spline is monotone, it also has an inverse over its range, which is useful for
+ * quantiles when the spline models a CDF. As with PolynomialSplineFunction, evaluating outside of the
+ * interpolation domain throws OutOfRangeException.
+ */
+public class MonotonicSplineFunction implements UnivariateDifferentiableFunction {
+    final int m;
+    final double xmin;
+    final double xmax;
+    final double alpha;
+    // knot[j] = xmin + j/alpha, j = 0 ... m
+    final double[] knot;
+    // c[4j + d] is the coefficient of t^d on interval j, where t = x - knot[j]
+    final double[] c;
+    // yknot[j] = s(knot[j]), which is non-decreasing
+    final double[] yknot;
+
+    MonotonicSplineFunction(double[] tau, double alpha, double xmin, double xmax) {
+        this.m = tau.length - 3;
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.alpha = alpha;
+        this.knot = new double[m + 1];
+        this.c = new double[4 * m];
+        for (int j = 0; j < m; ++j) {
+            // the same knots and coefficients as MSISupport.polynomialSplineFunction
+            knot[j] = xmin + ((double)j / alpha);
+            System.arraycopy(standardCoefficientsB3(3 + j, tau, alpha), 0, c, 4 * j, 4);
+        }
+        knot[m] = xmin + ((double)m / alpha);
+        this.yknot = new double[m + 1];
+        for (int j = 0; j < m; ++j) yknot[j] = c[4 * j];
+        yknot[m] = cubic(m - 1, knot[m] - knot[m - 1]);
+    }
+
+    /** the number of spline intervals (m) */
+    public int getM() {
+        return m;
+    }
+
+    /** the lower bound of the interpolation domain */
+    public double getXMin() {
+        return xmin;
+    }
+
+    /** the upper bound of the interpolation domain */
+    public double getXMax() {
+        return xmax;
+    }
+
+    /** a copy of the (m + 1) knots, which divide the interpolation domain into m equal intervals */
+    public double[] getKnots() {
+        return knot.clone();
+    }
+
+    /**
+     * @param x a point
+     * @return true if x is in the interpolation domain, where the function can be evaluated
+     */
+    public boolean isValidPoint(double x) {
+        return (x >= knot[0]) && (x <= knot[m]);
+    }
+
+    /**
+     * @param x a point in the interpolation domain
+     * @return the value of the spline at x
+     */
+    public double value(double x) {
+        final int j = interval(x);
+        final double t = x - knot[j];
+        final int o = 4 * j;
+        return ((c[o + 3] * t + c[o + 2]) * t + c[o + 1]) * t + c[o];
+    }
+
+    /**
+     * @param x a point in the interpolation domain
+     * @return the derivative of the spline at x, which is &ge; 0
+     */
+    public double derivative(double x) {
+        final int j = interval(x);
+        final double t = x - knot[j];
+        final int o = 4 * j;
+        return (3.0 * c[o + 3] * t + 2.0 * c[o + 2]) * t + c[o + 1];
+    }
+
+    /** the range of the spline: s(x) for x in [xmin, xmax] lies within [getYMin(), getYMax()] */
+    public double getYMin() {
+        return yknot[0];
+    }
+
+    /** the range of the spline: s(x) for x in [xmin, xmax] lies within [getYMin(), getYMax()] */
+    public double getYMax() {
+        return yknot[m];
+    }
+
+    /**
+     * The inverse of the spline, for example a quantile when the spline is a CDF.
+     * The interval containing the solution is found by binary search over the spline values at the knots,
+     * and the cubic on that interval is solved by Newton's method, safeguarded by bisection.
+     * If the spline is constant at y over some range of x, the result may be any point of that range.
+     * @param y a value in the range of the spline
+     * @return x such that s(x) = y
+     * @throws OutOfRangeException if y is outside [getYMin(), getYMax()]
+     */
+    public double inverse(double y) {
+        if (!((y >= yknot[0]) && (y <= yknot[m]))) throw new OutOfRangeException(y, yknot[0], yknot[m]);
+        // the first interval j whose right endpoint reaches y: yknot[j] < y <= yknot[j + 1]
+        int lo = 0;
+        int hi = m;
+        while (hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            if (yknot[mid] < y) lo = mid; else hi = mid;
+        }
+        if (y <= yknot[lo]) return knot[lo];
+        final int j = lo;
+        final int o = 4 * j;
+        // solve p(t) - y = 0 over the bracket [a, b], where p(a) < y <= p(b)
+        double a = 0.0;
+        double b = knot[j + 1] - knot[j];
+        final double tol = INVERSE_EPS * b;
+        // start from linear interpolation between the knots
+        double t = b * (y - yknot[j]) / (yknot[j + 1] - yknot[j]);
+        for (int k = 0; k < INVERSE_MAX_ITER; ++k) {
+            final double f = cubic(j, t) - y;
+            if (f == 0.0) return knot[j] + t;
+            if (f < 0.0) a = t; else b = t;
+            final double df = (3.0 * c[o + 3] * t + 2.0 * c[o + 2]) * t + c[o + 1];
+            double tn = t - (f / df);
+            // fall back to bisection when the Newton step leaves the bracket (or df is zero)
+            if (!((tn > a) && (tn < b))) tn = 0.5 * (a + b);
+            if (Math.abs(tn - t) <= tol) return knot[j] + tn;
+            t = tn;
+        }
+        return knot[j] + t;
+    }
+
+    /**
+     * Evaluate the spline at many points: out[k] = s(xs[k]). Points may be in any order.
+     * @param xs points in the interpolation domain
+     * @param out receives the values; at least as long as xs
+     */
+    public void value(double[] xs, double[] out) {
+        if (out.length < xs.length) throw new DimensionMismatchException(out.length, xs.length);
+        for (int k = 0; k < xs.length; ++k) {
+            final double x = xs[k];
+            final int j = interval(x);
+            final double t = x - knot[j];
+            final int o = 4 * j;
+            out[k] = ((c[o + 3] * t + c[o + 2]) * t + c[o + 1]) * t + c[o];
+        }
+    }
+
+    /**
+     * Evaluate the spline at many points in non-decreasing order: out[k] = s(xs[k]). This walks the
+     * intervals along with the points instead of locating each point separately, and checks the domain
+     * only at the ends.
+     * @param xs points in the interpolation domain, sorted in non-decreasing order
+     * @param out receives the values; at least as long as xs
+     * @throws IllegalArgumentException if xs is not sorted
+     */
+    public void valueSorted(double[] xs, double[] out) {
+        final int n = xs.length;
+        if (out.length < n) throw new DimensionMismatchException(out.length, n);
+        if (n == 0) return;
+        // domain errors are reported for the offending point, as value(x) would
+        interval(xs[n - 1]);
+        int j = interval(xs[0]);
+        double kj = knot[j];
+        double kn = (j < m - 1) ? knot[j + 1] : Double.POSITIVE_INFINITY;
+        double xp = xs[0];
+        for (int k = 0; k < n; ++k) {
+            final double x = xs[k];
+            if (x < xp) throw new IllegalArgumentException("points must be sorted in non-decreasing order");
+            xp = x;
+            while (x >= kn) {
+                ++j;
+                kj = kn;
+                kn = (j < m - 1) ? knot[j + 1] : Double.POSITIVE_INFINITY;
+            }
+            final double t = x - kj;
+            final int o = 4 * j;
+            out[k] = ((c[o + 3] * t + c[o + 2]) * t + c[o + 1]) * t + c[o];
+        }
+    }
+
+    @Override
+    public DerivativeStructure value(final DerivativeStructure x) {
+        final int j = interval(x.getValue());
+        final DerivativeStructure t = x.subtract(knot[j]);
+        final int o = 4 * j;
+        return t.multiply(c[o + 3]).add(c[o + 2]).multiply(t).add(c[o + 1]).multiply(t).add(c[o]);
+    }
+
+    // the interval j with knot[j] <= x < knot[j+1], or the last interval when x = xmax
+    int interval(double x) {
+        if (!((x >= knot[0]) && (x <= knot[m]))) throw new OutOfRangeException(x, knot[0], knot[m]);
+        int j = (int)((x - xmin) * alpha);
+        // correct for rounding, so intervals agree exactly with the knots
+        if (j >= m) j = m - 1;
+        if (x < knot[j]) --j;
+        else if ((j < m - 1) && (x >= knot[j + 1])) ++j;
+        return j;
+    }
+
+    // the cubic of interval j, at t = x - knot[j]
+    private double cubic(int j, double t) {
+        final int o = 4 * j;
+        return ((c[o + 3] * t + c[o + 2]) * t + c[o + 1]) * t + c[o];
+    }
+
+    // inverse iterations stop when the step is below this fraction of the interval width
+    private static final double INVERSE_EPS = 1e-14;
+    // bisection alone reaches INVERSE_EPS within 50 iterations, so this is only a backstop
+    private static final int INVERSE_MAX_ITER = 100;
+}
@@ -14,18 +14,19 @@ limitations under the License.
 package com.manyangled.snowball.analysis.interpolation;
 
 import java.util.ArrayList;
-
-import org.apache.commons.math3.exception.DimensionMismatchException;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.math3.optim.OptimizationData;
 
 import org.apache.commons.math3.analysis.interpolation.UnivariateInterpolator;
 import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 
-import static com.manyangled.snowball.analysis.interpolation.MSISupport.fitMonotoneSpline;
-
 /**
  * Interpolates data using a spline that is constrained to be monotonic non-decreasing.
+ * <p>
+ * Fitting does not modify the interpolator: each fit works from a snapshot of the current settings
+ * (see {@link #config()}). An interpolator is not thread-safe while it is being configured; to share one
+ * configuration across threads, use the immutable {@link MonotonicSplineConfig} directly.
  */
 public class MonotonicSplineInterpolator implements UnivariateInterpolator {
     private int m = M_DEFAULT;
@@ -54,53 +55,210 @@ public class MonotonicSplineInterpolator implements UnivariateInterpolator {
      * spline intervals configured. See the setM method below.
      */
     public PolynomialSplineFunction interpolate(double x[], double y[]) {
-        final int n = x.length;
-        final int M = m + 3;
-        if (n < M) throw new IllegalArgumentException(String.format("data length (%d) must be >= %d", n, M));
-        if (y.length != n) throw new DimensionMismatchException(y.length, n);
-        if (w == null) {
-            w = new double[n];
-            for (int j = 0; j < n; ++j) w[j] = 1.0;
-        }
-        if (w.length != n) throw new DimensionMismatchException(w.length, n);
-        for (int j = 0; j < n; ++j)
-            if (w[j] <= 0.0) throw new IllegalArgumentException("weights (w) must be > 0");
-        if (Double.isNaN(xmin)) {
-            double z = x[0];
-            for (int j = 1; j < n; ++j) if (x[j] < z) z = x[j];
-            xmin = z;
-        }
-        if (Double.isNaN(xmax)) {
-            double z = x[0];
-            for (int j = 1; j < n; ++j) if (x[j] > z) z = x[j];
-            xmax = z;
-        }
-        if (xmax <= xmin) throw new IllegalArgumentException("xMin must be < xMax");
-        int nC = constraintX.size();
-        double[] xC = new double[nC];
-        double[] yC = new double[nC];
-        for (int j = 0; j < nC; ++j) {
-            xC[j] = constraintX.get(j);
-            yC[j] = constraintY.get(j);
-        }
-        nC = gConstraintX.size();
-        double[] xgC = new double[nC];
-        double[] ygC = new double[nC];
-        for (int j = 0; j < nC; ++j) {
-            xgC[j] = gConstraintX.get(j);
-            ygC[j] = gConstraintY.get(j);
-        }
-        nC = ltConstraintX.size();
-        double[] xltC = new double[nC];
-        double[] yltC = new double[nC];
-        double[] ltCF = new double[nC];
-        for (int j = 0; j < nC; ++j) {
-            xltC[j] = ltConstraintX.get(j);
-            yltC[j] = ltConstraintY.get(j);
-            ltCF[j] = ltConstraintF.get(j);
-        }
+        return fit(x, y, null).toPolynomialSplineFunction();
+    }
 
-        return fitMonotoneSpline(x, y, m, xmin, xmax, lambda, w, xC, yC, xgC, ygC, xltC, yltC, ltCF, fitOpts);
+    /**
+     * Given data (x1, y1), (x2, y2)..., fit a spline that is constrained to be monotonic, and return
+     * its coefficients. Requirements on the data are the same as for {@link #interpolate(double[], double[])}.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @return the fitted spline
+     */
+    public MonotonicSplineFit fit(double x[], double y[]) {
+        return fit(x, y, null);
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic, warm-started from a previous fit. When the data
+     * have changed little since the previous fit, the solver starts close to the new optimum and converges
+     * in a few iterations. The barrier method starts from the previous solution pushed slightly into the
+     * interior of the feasible region; the active set method ({@link ActiveSetEngine}) starts from the
+     * previous solution itself, with its active constraints.
+     * <p>
+     * The previous fit is used only if it has the same number of intervals (m) and interpolation domain as
+     * this fit, so warm starts are most effective when the domain is declared using setBounds. Otherwise,
+     * and if the previous solution violates the current constraints, the fit starts from scratch.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param previous a previous fit, or null to start from scratch
+     * @return the fitted spline
+     */
+    public MonotonicSplineFit fit(double x[], double y[], MonotonicSplineFit previous) {
+        return config().fit(x, y, w, previous);
+    }
+
+    /**
+     * Begin an incremental fit, where data (x, y, w) are supplied in any number of chunks and
+     * the spline is fit at the end with {@link MonotonicSplineAccumulator#fit()}. Data points are
+     * folded into the fitting objective as they arrive, so the full data set never needs to be held
+     * in memory.
+     * <p>
+     * The interpolation domain cannot be inferred from data that have not been seen yet, and so it
+     * must be declared beforehand using setBounds. The returned accumulator captures the current
+     * settings of this interpolator; later changes to the interpolator do not affect it.
+     * @return a new accumulator with no data
+     */
+    public MonotonicSplineAccumulator accumulator() {
+        return config().accumulator();
+    }
+
+    /**
+     * Create an empty sketch with this interpolator's number of intervals (m) and interpolation domain,
+     * which must be declared beforehand using setBounds.
+     * @return a new sketch with no data
+     */
+    public MonotonicSplineSketch sketch() {
+        return config().sketch();
+    }
+
+    /**
+     * Fit an interpolating spline that is constrained to be monotonic, to the data summarized by a sketch.
+     * The sketch determines the number of intervals (m) and the interpolation domain; if they have been
+     * configured on this interpolator they must agree with the sketch. The smoothing parameter, constraints
+     * and options are taken from this interpolator.
+     * @param sketch the summarized data
+     * @return a polynomial spline that interpolates the data, and is monotonic non-decreasing over its
+     * interpolation domain.
+     */
+    public PolynomialSplineFunction interpolate(MonotonicSplineSketch sketch) {
+        return fit(sketch, null).toPolynomialSplineFunction();
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic to the data summarized by a sketch, warm-started
+     * from a previous fit, as described for {@link #fit(double[], double[], MonotonicSplineFit)}.
+     * Requirements on the sketch are the same as for {@link #interpolate(MonotonicSplineSketch)}.
+     * @param sketch the summarized data
+     * @param previous a previous fit, or null to start from scratch
+     * @return the fitted spline
+     */
+    public MonotonicSplineFit fit(MonotonicSplineSketch sketch, MonotonicSplineFit previous) {
+        return config().fit(sketch, previous);
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic to reduced data, such as many points binned with
+     * {@link MonotonicSplineBins#bin(double[], double[], double[], int)}. The weights of the reduced data
+     * are used in place of any set with setW.
+     * See {@link MonotonicSplineConfig#fit(MonotonicSplineBins, MonotonicSplineFit)}.
+     * @param bins the reduced data
+     * @param previous a previous fit, or null to start from scratch
+     * @return the fitted spline
+     */
+    public MonotonicSplineFit fit(MonotonicSplineBins bins, MonotonicSplineFit previous) {
+        return config().fit(bins, previous);
+    }
+
+    /**
+     * Fit a cumulative distribution function directly from a distribution summary, such as a list of
+     * centroids or a histogram, without materializing its samples. The fit is constrained to rise from
+     * 0 to 1 over the interpolation domain. Weights set with setW are not used.
+     * See {@link MonotonicSplineConfig#fit(MonotonicSplineCDF, MonotonicSplineFit)}.
+     * @param cdf the empirical CDF
+     * @param previous a previous fit, or null to start from scratch
+     * @return the fitted CDF
+     */
+    public MonotonicSplineFit fit(MonotonicSplineCDF cdf, MonotonicSplineFit previous) {
+        return config().fit(cdf, previous);
+    }
+
+    /**
+     * Fit a spline that is constrained to be monotonic to data (x, y), choosing the number of intervals
+     * automatically, starting from the m set with setM and doubling it while the fit improves.
+     * Weights set with setW are applied.
+     * See {@link MonotonicSplineConfig#fitAdaptive(double[], double[], double[], int)}.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param mMax the largest number of intervals to try
+     * @return the fitted spline with the chosen number of intervals
+     */
+    public MonotonicSplineFit fitAdaptive(double x[], double y[], int mMax) {
+        return config().fitAdaptive(x, y, w, mMax);
+    }
+
+    /**
+     * Choose the smoothing parameter (lambda) for data (x, y) from a list of candidates, by generalized
+     * cross-validation. Weights set with setW are applied; the lambda set with setLambda is not used.
+     * See {@link MonotonicSplineConfig#selectLambda(double[], double[], double[], double[])}.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param lambdas the candidate smoothing parameters, each &gt; 0
+     * @return the candidates, their scores, and the fit with the best lambda
+     */
+    public MonotonicSplineLambdaSelection selectLambda(double x[], double y[], double[] lambdas) {
+        return config().selectLambda(x, y, w, lambdas);
+    }
+
+    /**
+     * Choose the smoothing parameter (lambda) for data (x, y) from a list of candidates, by k-fold
+     * cross-validation. Weights set with setW are applied; the lambda set with setLambda is not used.
+     * See {@link MonotonicSplineConfig#selectLambda(double[], double[], double[], double[], int)}.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param lambdas the candidate smoothing parameters, each &gt; 0
+     * @param folds the number of folds, &ge; 2
+     * @return the candidates, their scores, and the fit with the best lambda
+     */
+    public MonotonicSplineLambdaSelection selectLambda(double x[], double y[], double[] lambdas, int folds) {
+        return config().selectLambda(x, y, w, lambdas, folds);
+    }
+
+    /**
+     * Choose the smoothing parameter (lambda) for the data summarized by a sketch, from a list of candidates,
+     * by generalized cross-validation.
+     * See {@link MonotonicSplineConfig#selectLambda(MonotonicSplineSketch, double[])}.
+     * @param sketch the summarized data
+     * @param lambdas the candidate smoothing parameters, each &gt; 0
+     * @return the candidates, their scores, and the fit with the best lambda
+     */
+    public MonotonicSplineLambdaSelection selectLambda(MonotonicSplineSketch sketch, double[] lambdas) {
+        return config().selectLambda(sketch, lambdas);
+    }
+
+    /**
+     * Fit many independent curves with this interpolator's settings, in parallel on the common fork/join pool.
+     * See {@link MonotonicSplineConfig#interpolateAll(double[][], double[][], double[][], Executor)}.
+     * Weights set with setW are not used; each curve has weights of 1.
+     * @param xs the x data of each curve
+     * @param ys the y data of each curve
+     * @return the fitted splines, and the error of each curve that could not be fit
+     */
+    public MonotonicSplineBatch interpolateAll(double[][] xs, double[][] ys) {
+        return config().interpolateAll(xs, ys);
+    }
+
+    /**
+     * Fit many independent curves with this interpolator's settings, in parallel.
+     * See {@link MonotonicSplineConfig#interpolateAll(double[][], double[][], double[][], Executor)}.
+     * @param xs the x data of each curve
+     * @param ys the y data of each curve
+     * @param ws the weights of each curve, or null for weights of 1
+     * @param executor runs the fits
+     * @return the fitted splines, and the error of each curve that could not be fit
+     */
+    public MonotonicSplineBatch interpolateAll(double[][] xs, double[][] ys, double[][] ws, Executor executor) {
+        return config().interpolateAll(xs, ys, ws, executor);
+    }
+
+    /**
+     * Take an immutable snapshot of this interpolator's settings (everything except the weights, which
+     * belong to the data). The snapshot can be shared across threads, and is not affected by later changes
+     * to this interpolator.
+     * @return the current configuration
+     */
+    public MonotonicSplineConfig config() {
+        MonotonicSplineConfig.Builder b = MonotonicSplineConfig.builder().setM(m).setLambda(lambda);
+        if (!Double.isNaN(xmin)) b.setBounds(xmin, xmax);
+        for (int j = 0; j < constraintX.size(); ++j) b.addEqualityConstraint(constraintX.get(j), constraintY.get(j));
+        for (int j = 0; j < gConstraintX.size(); ++j)
+            b.addGradientEqualityConstraint(gConstraintX.get(j), gConstraintY.get(j));
+        for (int j = 0; j < ltConstraintX.size(); ++j) {
+            if (ltConstraintF.get(j) > 0.0) b.addLessThanConstraint(ltConstraintX.get(j), ltConstraintY.get(j));
+            else b.addGreaterThanConstraint(ltConstraintX.get(j), ltConstraintY.get(j));
+        }
+        b.addInterpolationOptions(fitOpts.toArray(new OptimizationData[0]));
+        return b.build();
     }
 
     /**
@@ -217,5 +375,5 @@ public class MonotonicSplineInterpolator implements UnivariateInterpolator {
     public static final int M_DEFAULT = 5;
 
     /** The minimum number of piecewise intervals */
-    private static final int M_MINIMUM = 4;
+    static final int M_MINIMUM = 4;
 }
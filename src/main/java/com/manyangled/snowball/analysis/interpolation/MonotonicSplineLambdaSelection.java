@@ -0,0 +1,58 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+/**
+ * The result of a smoothing parameter (lambda) search with
+ * {@link MonotonicSplineConfig#selectLambda(double[], double[], double[], double[])} or one of its variants:
+ * the candidate lambdas in increasing order, the score of each, the lambda with the lowest score, and the
+ * spline fit to all of the data with that lambda.
+ */
+public class MonotonicSplineLambdaSelection {
+    private final double[] lambdas;
+    private final double[] scores;
+    private final int best;
+    private final MonotonicSplineFit fit;
+
+    MonotonicSplineLambdaSelection(double[] lambdas, double[] scores, int best, MonotonicSplineFit fit) {
+        this.lambdas = lambdas;
+        this.scores = scores;
+        this.best = best;
+        this.fit = fit;
+    }
+
+    /** the selected smoothing parameter, which has the lowest score */
+    public double getLambda() {
+        return lambdas[best];
+    }
+
+    /** the spline fit to all of the data with the selected smoothing parameter */
+    public MonotonicSplineFit getFit() {
+        return fit;
+    }
+
+    /** a copy of the candidate smoothing parameters, in increasing order */
+    public double[] getLambdas() {
+        return lambdas.clone();
+    }
+
+    /**
+     * A copy of the score of each candidate, in the same order as {@link #getLambdas()}: the generalized
+     * cross-validation score, or the mean squared error on held-out data for k-fold cross-validation.
+     */
+    public double[] getScores() {
+        return scores.clone();
+    }
+}
@@ -0,0 +1,288 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineFormat.M_OFFSET;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineFormat.XMIN_OFFSET;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineFormat.XMAX_OFFSET;
+
+/**
+ * Many fitted splines, each identified by a long id, packed into one off-heap buffer or memory mapped file.
+ * <p>
+ * Holding a {@link org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction} per curve costs
+ * an object graph on the heap for each one. A registry instead holds every curve as a
+ * {@link MonotonicSplineFormat} record in a single buffer, evaluates them directly from it with no
+ * allocation, and can be memory mapped, so opening a registry of millions of curves reads almost nothing.
+ * The layout is little-endian:
+ * <pre>
+ * offset            size          field
+ *  0                4             magic number 0x4d535052 ("MSPR")
+ *  4                2             format version (1)
+ *  6                2             reserved (0)
+ *  8                4             n, the number of splines
+ * 12                4             stride, the bytes reserved for each spline record
+ * 16                8 n           ids, in increasing order
+ * 16 + 8 n          stride n      spline records, in the same order as the ids
+ * </pre>
+ * Every record slot has the same size, large enough for the spline with the most intervals, so the
+ * spline with the k-th smallest id is found at a fixed offset, after a binary search of the ids.
+ * Opening a registry checks only its header and size; each record is validated the first time it is used,
+ * and {@link #verify()} validates all of them at once. A registry is read-only and safe to use from many
+ * threads.
+ */
+public final class MonotonicSplineRegistry {
+    /** the first four bytes of a registry */
+    public static final int MAGIC = 0x4d535052;
+    /** the registry format version written by this class */
+    public static final short VERSION = 1;
+
+    static final int HEADER_BYTES = 16;
+
+    // little-endian, and only read with absolute gets, which are safe to share between threads
+    private final ByteBuffer buf;
+    private final int n;
+    private final int stride;
+    private final int data;
+    // one bit per record, set once the record has been validated
+    private final AtomicLongArray valid;
+
+    private MonotonicSplineRegistry(ByteBuffer buf) {
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.limit() < HEADER_BYTES)
+            throw new IllegalArgumentException("truncated monotonic spline registry");
+        if (buf.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("not a monotonic spline registry");
+        final short version = buf.getShort(4);
+        if (version != VERSION)
+            throw new IllegalArgumentException(String.format("unsupported monotonic spline registry version %d", version));
+        this.n = buf.getInt(8);
+        this.stride = buf.getInt(12);
+        if ((n < 0) || (stride < MonotonicSplineFormat.recordBytes(MonotonicSplineInterpolator.M_MINIMUM))
+            || (stride % 8 != 0))
+            throw new IllegalArgumentException("invalid monotonic spline registry header");
+        this.data = HEADER_BYTES + 8 * n;
+        if ((long)data + (long)stride * (long)n != (long)buf.limit())
+            throw new IllegalArgumentException("monotonic spline registry size does not match its header");
+        this.valid = new AtomicLongArray((n + 63) / 64);
+    }
+
+    /**
+     * Pack fits into a registry held in a direct (off-heap) buffer.
+     * @param ids distinct ids, in any order
+     * @param fits the fit for each id
+     * @return the registry
+     */
+    public static MonotonicSplineRegistry of(long[] ids, MonotonicSplineFit[] fits) {
+        ByteBuffer b = ByteBuffer.allocateDirect(checkedBytes(ids, fits));
+        pack(ids, fits, b);
+        b.flip();
+        return new MonotonicSplineRegistry(b);
+    }
+
+    /**
+     * Write fits to a registry file, which can be opened with {@link #open(Path)}.
+     * @param path the file to write, which is replaced if it exists
+     * @param ids distinct ids, in any order
+     * @param fits the fit for each id
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, long[] ids, MonotonicSplineFit[] fits) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(checkedBytes(ids, fits));
+        pack(ids, fits, b);
+        b.flip();
+        try (FileChannel ch = FileChannel.open(path,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (b.hasRemaining()) ch.write(b);
+        }
+    }
+
+    /**
+     * Memory-map a registry file, read-only.
+     * @param path a file written by {@link #write(Path, long[], MonotonicSplineFit[])}
+     * @return the registry
+     * @throws IOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the file is not a valid registry
+     */
+    public static MonotonicSplineRegistry open(Path path) throws IOException {
+        if (Files.size(path) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("registry files are limited to 2 GB");
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping remains valid after the channel is closed
+            return new MonotonicSplineRegistry(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * Validate every record now, rather than each one when it is first used. This reads the whole registry.
+     * @throws IllegalArgumentException if any record is invalid
+     */
+    public void verify() {
+        for (int k = 0; k < n; ++k) record(k);
+    }
+
+    /** the number of splines in the registry */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @param k an index, 0 &le; k &lt; size()
+     * @return the id with index k; ids are indexed in increasing order
+     */
+    public long getId(int k) {
+        if ((k < 0) || (k >= n)) throw new IndexOutOfBoundsException(String.format("index %d", k));
+        return buf.getLong(HEADER_BYTES + 8 * k);
+    }
+
+    /**
+     * @param id a spline id
+     * @return the index of the spline with this id, or -1 if there is none
+     */
+    public int indexOf(long id) {
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final long v = buf.getLong(HEADER_BYTES + 8 * mid);
+            if (v < id) lo = mid + 1;
+            else if (v > id) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * @param id a spline id
+     * @return true if the registry holds a spline with this id
+     */
+    public boolean contains(long id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Evaluate a spline, reading its coefficients directly from the registry buffer.
+     * @param id the spline id
+     * @param x a point in the interpolation domain of the spline
+     * @return the value of the spline at x
+     * @throws IllegalArgumentException if there is no spline with this id
+     * @throws org.apache.commons.math3.exception.OutOfRangeException if x is outside the spline's domain
+     */
+    public double value(long id, double x) {
+        final int k = indexOf(id);
+        if (k < 0) throw new IllegalArgumentException(String.format("no spline with id %d", id));
+        return valueAt(k, x);
+    }
+
+    /**
+     * Evaluate the spline with index k, reading its coefficients directly from the registry buffer.
+     * @param k an index, 0 &le; k &lt; size()
+     * @param x a point in the interpolation domain of the spline
+     * @return the value of the spline at x
+     * @throws IllegalArgumentException if the record is invalid
+     */
+    public double valueAt(int k, double x) {
+        if ((k < 0) || (k >= n)) throw new IndexOutOfBoundsException(String.format("index %d", k));
+        final int p = record(k);
+        final int m = buf.getInt(p + M_OFFSET);
+        final double xmin = buf.getDouble(p + XMIN_OFFSET);
+        final double xmax = buf.getDouble(p + XMAX_OFFSET);
+        // the same as MonotonicSplineFit
+        final double alpha = (double)m / (xmax - xmin);
+        return MonotonicSplineView.value(buf, p, m, xmin, alpha, x);
+    }
+
+    /**
+     * @param id a spline id
+     * @return a view of the spline with this id, which shares the registry buffer
+     * @throws IllegalArgumentException if there is no spline with this id
+     */
+    public MonotonicSplineView view(long id) {
+        final int k = indexOf(id);
+        if (k < 0) throw new IllegalArgumentException(String.format("no spline with id %d", id));
+        ByteBuffer b = buf.duplicate();
+        b.position(record(k));
+        return MonotonicSplineFormat.view(b);
+    }
+
+    // the position of record k, which is validated the first time it is used
+    private int record(int k) {
+        final int p = data + stride * k;
+        final long bit = 1L << k;
+        if ((valid.get(k >>> 6) & bit) != 0L) return p;
+        // the ids around k must be in order for the binary search to have found it
+        final int q = HEADER_BYTES + 8 * k;
+        if (((k > 0) && (buf.getLong(q - 8) >= buf.getLong(q))) ||
+            ((k < n - 1) && (buf.getLong(q) >= buf.getLong(q + 8))))
+            throw new IllegalArgumentException("monotonic spline registry ids are not in increasing order");
+        final int m = MonotonicSplineFormat.check(buf, p);
+        if (MonotonicSplineFormat.recordBytes(m) > stride)
+            throw new IllegalArgumentException(String.format("monotonic spline registry record %d exceeds its slot", k));
+        valid.getAndAccumulate(k >>> 6, bit, (a, b) -> a | b);
+        return p;
+    }
+
+    // validate the arguments, and return the size of the registry
+    private static int checkedBytes(long[] ids, MonotonicSplineFit[] fits) {
+        if (ids.length != fits.length) throw new DimensionMismatchException(fits.length, ids.length);
+        int maxM = MonotonicSplineInterpolator.M_MINIMUM;
+        for (MonotonicSplineFit f: fits) maxM = Math.max(maxM, f.m);
+        final long stride = MonotonicSplineFormat.recordBytes(maxM);
+        final long size = HEADER_BYTES + (8 + stride) * (long)ids.length;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("registry files are limited to 2 GB");
+        return (int)size;
+    }
+
+    private static void pack(long[] ids, MonotonicSplineFit[] fits, ByteBuffer b) {
+        final int n = ids.length;
+        Integer[] order = new Integer[n];
+        for (int k = 0; k < n; ++k) order[k] = k;
+        Arrays.sort(order, Comparator.comparingLong(k -> ids[k]));
+        for (int k = 1; k < n; ++k) {
+            if (ids[order[k]] == ids[order[k - 1]])
+                throw new IllegalArgumentException(String.format("duplicate spline id %d", ids[order[k]]));
+        }
+        int maxM = MonotonicSplineInterpolator.M_MINIMUM;
+        for (MonotonicSplineFit f: fits) maxM = Math.max(maxM, f.m);
+        final int stride = MonotonicSplineFormat.recordBytes(maxM);
+        final int data = HEADER_BYTES + 8 * n;
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0, MAGIC);
+        b.putShort(4, VERSION);
+        b.putShort(6, (short)0);
+        b.putInt(8, n);
+        b.putInt(12, stride);
+        for (int k = 0; k < n; ++k) {
+            b.putLong(HEADER_BYTES + 8 * k, ids[order[k]]);
+            b.position(data + stride * k);
+            MonotonicSplineFormat.write(fits[order[k]], b);
+        }
+        // unused space at the end of each slot is left zeroed
+        b.position(data + stride * n);
+    }
+}
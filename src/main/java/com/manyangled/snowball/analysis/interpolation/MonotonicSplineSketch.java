@@ -0,0 +1,137 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.io.Serializable;
+
+/**
+ * A mergeable summary of spline fitting data, for a fixed number of spline intervals (m) and
+ * a fixed interpolation domain [xMin, xMax].
+ * <p>
+ * The fitting objective is a sum over data points, so a sketch holds only the (m + 3) x (m + 3)
+ * sufficient statistics of the data it has seen. Sketches built from separate partitions of a data
+ * set can be combined with {@link #merge(MonotonicSplineSketch)}, and the result is the same as a
+ * sketch built from the whole data set. Sketches are serializable, which makes them suitable as
+ * aggregators in distributed map/reduce computations.
+ * <p>
+ * A spline is fit to the sketched data with {@link MonotonicSplineInterpolator#interpolate(MonotonicSplineSketch)}.
+ */
+public class MonotonicSplineSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final GramAccumulator data;
+
+    /**
+     * Create an empty sketch.
+     * @param m the number of piecewise polynomial intervals. Must be &ge; 4.
+     * @param xMin the lower bound of the interpolation domain
+     * @param xMax the upper bound of the interpolation domain
+     */
+    public MonotonicSplineSketch(int m, double xMin, double xMax) {
+        if (m < MonotonicSplineInterpolator.M_MINIMUM)
+            throw new IllegalArgumentException(String.format("m must be >= %d", MonotonicSplineInterpolator.M_MINIMUM));
+        if (xMax <= xMin)
+            throw new IllegalArgumentException("xMin must be < xMax");
+        this.data = new GramAccumulator(m, xMin, xMax);
+    }
+
+    /**
+     * Add a data point (x, y) with weight 1.
+     * @param x the x value
+     * @param y the y value
+     * @return this sketch
+     */
+    public MonotonicSplineSketch add(double x, double y) {
+        data.add(x, y, 1.0);
+        return this;
+    }
+
+    /**
+     * Add a data point (x, y) with weight w.
+     * @param x the x value
+     * @param y the y value
+     * @param w the weight of the point. Must be &gt; 0.
+     * @return this sketch
+     */
+    public MonotonicSplineSketch add(double x, double y, double w) {
+        GramAccumulator.checkWeight(w);
+        data.add(x, y, w);
+        return this;
+    }
+
+    /**
+     * Add data points, each with weight 1.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @return this sketch
+     */
+    public MonotonicSplineSketch add(double[] x, double[] y) {
+        data.addChunk(x, y, null);
+        return this;
+    }
+
+    /**
+     * Add weighted data points.
+     * @param x the x data x1, x2, ...
+     * @param y the y data y1, y2, ...
+     * @param w the weights w1, w2, ... Must be &gt; 0. If any is not, no data are added.
+     * @return this sketch
+     */
+    public MonotonicSplineSketch add(double[] x, double[] y, double[] w) {
+        data.addChunk(x, y, w);
+        return this;
+    }
+
+    /**
+     * Add all data summarized by another sketch into this one.
+     * @param that the sketch to merge. Must have the same m and interpolation domain as this sketch.
+     * @return this sketch
+     */
+    public MonotonicSplineSketch merge(MonotonicSplineSketch that) {
+        data.merge(that.data);
+        return this;
+    }
+
+    /**
+     * The number of data points summarized by this sketch.
+     * @return the number of data points
+     */
+    public long size() {
+        return data.n;
+    }
+
+    /**
+     * The number of piecewise polynomial intervals.
+     * @return m
+     */
+    public int getM() {
+        return data.m;
+    }
+
+    /**
+     * The lower bound of the interpolation domain.
+     * @return xMin
+     */
+    public double getXMin() {
+        return data.xmin;
+    }
+
+    /**
+     * The upper bound of the interpolation domain.
+     * @return xMax
+     */
+    public double getXMax() {
+        return data.xmax;
+    }
+}
@@ -0,0 +1,490 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.apache.commons.math3.exception.DimensionMismatchException;
+
+import org.apache.commons.math3.analysis.UnivariateFunction;
+
+/**
+ * A fitted monotone spline compiled into a dense table of values at uniformly spaced nodes, for scoring
+ * with as little work per point as possible: one multiply to find the table cell, and a linear or cubic
+ * Hermite interpolation between its two nodes.
+ * <p>
+ * Table evaluation preserves monotonicity. Linear interpolation between non-decreasing node values is
+ * monotone. Hermite interpolation uses the spline derivatives at the nodes, limited as described by
+ * Fritsch and Carlson ("Monotone Piecewise Cubic Interpolation", SIAM J. Numer. Anal. 17(2), 1980) so that
+ * each cubic is monotone. Each result is also clamped between the values at its two nodes, so rounding
+ * never reverses the order between cells.
+ * <p>
+ * The table can be stored in float or double precision, on the heap or in direct (off-heap) buffers.
+ * {@link #getErrorBound()} reports the largest difference from the exact spline, computed exactly for
+ * every cell when the table is built.
+ * <pre>
+ * MonotonicSplineTable table = MonotonicSplineTable.builder()
+ *     .setSize(4096)
+ *     .setInterpolation(MonotonicSplineTable.Interpolation.HERMITE)
+ *     .build(fit.toFunction());
+ * </pre>
+ */
+public final class MonotonicSplineTable implements UnivariateFunction {
+    /** how values between the table nodes are interpolated */
+    public enum Interpolation {
+        /** linear interpolation between node values */
+        LINEAR,
+        /** cubic Hermite interpolation of node values and derivatives, limited to remain monotone */
+        HERMITE
+    }
+
+    /** the precision of the stored table entries; evaluation is always in double precision */
+    public enum Precision {
+        FLOAT,
+        DOUBLE
+    }
+
+    private final Interpolation interpolation;
+    private final Precision precision;
+    private final boolean direct;
+    private final int size;
+    private final double xmin;
+    private final double xmax;
+    // cell j spans [xmin + j/scale, xmin + (j+1)/scale]
+    private final double scale;
+    // LINEAR: entry j is the value at node j
+    // HERMITE: entries 2j and 2j+1 are the value at node j, and the derivative times the node spacing
+    // exactly one of these holds the entries, according to the precision and storage
+    private final double[] doubles;
+    private final float[] floats;
+    private final DoubleBuffer doubleBuffer;
+    private final FloatBuffer floatBuffer;
+    // which evaluation method serves this table, chosen once from its interpolation, precision and storage,
+    // so that the lookup never dispatches on the storage type
+    private final int layout;
+    private final double errorBound;
+
+    private MonotonicSplineTable(Builder b, MonotonicSplineFunction f) {
+        this.interpolation = b.interpolation;
+        this.precision = b.precision;
+        this.direct = b.direct;
+        this.size = b.size;
+        this.xmin = f.getXMin();
+        this.xmax = f.getXMax();
+        this.scale = (double)(size - 1) / (xmax - xmin);
+        final double h = (xmax - xmin) / (double)(size - 1);
+        final long n = (interpolation == Interpolation.LINEAR) ? size : 2L * size;
+        final long bytes = n * ((precision == Precision.FLOAT) ? 4L : 8L);
+        if (direct && bytes > (long)Integer.MAX_VALUE)
+            throw new IllegalArgumentException("table of " + bytes + " bytes is too large for a direct buffer");
+        final boolean toFloat = (precision == Precision.FLOAT);
+        double[] y = new double[size];
+        for (int j = 0; j < size; ++j) y[j] = f.value(node(j));
+        // the table values are what is interpolated, so they are rounded to the table precision first
+        if (toFloat) {
+            for (int j = 0; j < size; ++j) y[j] = (double)(float)y[j];
+        }
+        double[] e;
+        if (interpolation == Interpolation.LINEAR) {
+            e = y;
+        } else {
+            double[] d = new double[size];
+            for (int j = 0; j < size; ++j) d[j] = h * f.derivative(node(j));
+            // likewise the derivatives, so that the limiter sees the slopes that are actually stored
+            if (toFloat) {
+                for (int j = 0; j < size; ++j) d[j] = (double)(float)d[j];
+            }
+            limit(y, d, toFloat);
+            e = new double[2 * size];
+            for (int j = 0; j < size; ++j) {
+                e[2 * j] = y[j];
+                e[2 * j + 1] = d[j];
+            }
+        }
+        double[] da = null;
+        float[] fa = null;
+        DoubleBuffer db = null;
+        FloatBuffer fb = null;
+        if (!toFloat) {
+            if (direct) {
+                db = ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+                db.put(e);
+            } else {
+                da = e.clone();
+            }
+        } else {
+            fa = new float[e.length];
+            for (int i = 0; i < e.length; ++i) fa[i] = (float)e[i];
+            if (direct) {
+                fb = ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                fb.put(fa);
+                fa = null;
+            }
+        }
+        this.doubles = da;
+        this.floats = fa;
+        this.doubleBuffer = db;
+        this.floatBuffer = fb;
+        this.layout = ((interpolation == Interpolation.HERMITE) ? HERMITE_BIT : 0)
+            | (toFloat ? FLOAT_BIT : 0)
+            | (direct ? DIRECT_BIT : 0);
+        this.errorBound = measureError(f);
+    }
+
+    /** @return a new builder, with 1024 entries, linear interpolation, double precision and heap storage */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** the number of table nodes */
+    public int getSize() {
+        return size;
+    }
+
+    /** the lower bound of the interpolation domain */
+    public double getXMin() {
+        return xmin;
+    }
+
+    /** the upper bound of the interpolation domain */
+    public double getXMax() {
+        return xmax;
+    }
+
+    /** how values between nodes are interpolated */
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    /** the precision of the stored table entries */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /** true if the table is stored off-heap */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * The largest absolute difference between this table and the exact spline (the same function as
+     * {@link MonotonicSplineFit#toPolynomialSplineFunction()}) anywhere in the domain. On each piece of a
+     * table cell between spline knots the difference is a cubic, whose maximum is found exactly from the
+     * roots of its derivative; a small allowance is added for floating point rounding.
+     */
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * @param x a point in the interpolation domain
+     * @return the interpolated table value at x
+     * @throws OutOfRangeException if x is outside the interpolation domain
+     */
+    public double value(double x) {
+        if (!((x >= xmin) && (x <= xmax))) throw new OutOfRangeException(x, xmin, xmax);
+        final double u = (x - xmin) * scale;
+        int j = (int)u;
+        if (j > size - 2) j = size - 2;
+        return cell(j, u - (double)j);
+    }
+
+    /**
+     * Evaluate the table at many points: out[k] = value(xs[k]).
+     * @param xs points in the interpolation domain
+     * @param out receives the values; at least as long as xs
+     */
+    public void value(double[] xs, double[] out) {
+        if (out.length < xs.length) throw new DimensionMismatchException(out.length, xs.length);
+        for (int k = 0; k < xs.length; ++k) out[k] = value(xs[k]);
+    }
+
+    // the interpolation on cell j at fraction t in [0, 1]
+    private double cell(int j, double t) {
+        switch (layout) {
+            case LINEAR_DOUBLE_ARRAY: return linearDoubleArray(j, t);
+            case LINEAR_DOUBLE_DIRECT: return linearDoubleDirect(j, t);
+            case LINEAR_FLOAT_ARRAY: return linearFloatArray(j, t);
+            case LINEAR_FLOAT_DIRECT: return linearFloatDirect(j, t);
+            case HERMITE_DOUBLE_ARRAY: return hermiteDoubleArray(j, t);
+            case HERMITE_DOUBLE_DIRECT: return hermiteDoubleDirect(j, t);
+            case HERMITE_FLOAT_ARRAY: return hermiteFloatArray(j, t);
+            default: return hermiteFloatDirect(j, t);
+        }
+    }
+
+    private double linearDoubleArray(int j, double t) {
+        return linear(doubles[j], doubles[j + 1], t);
+    }
+
+    private double linearDoubleDirect(int j, double t) {
+        return linear(doubleBuffer.get(j), doubleBuffer.get(j + 1), t);
+    }
+
+    private double linearFloatArray(int j, double t) {
+        return linear(floats[j], floats[j + 1], t);
+    }
+
+    private double linearFloatDirect(int j, double t) {
+        return linear(floatBuffer.get(j), floatBuffer.get(j + 1), t);
+    }
+
+    private double hermiteDoubleArray(int j, double t) {
+        final int o = 2 * j;
+        return hermite(doubles[o], doubles[o + 1], doubles[o + 2], doubles[o + 3], t);
+    }
+
+    private double hermiteDoubleDirect(int j, double t) {
+        final int o = 2 * j;
+        return hermite(doubleBuffer.get(o), doubleBuffer.get(o + 1),
+            doubleBuffer.get(o + 2), doubleBuffer.get(o + 3), t);
+    }
+
+    private double hermiteFloatArray(int j, double t) {
+        final int o = 2 * j;
+        return hermite(floats[o], floats[o + 1], floats[o + 2], floats[o + 3], t);
+    }
+
+    private double hermiteFloatDirect(int j, double t) {
+        final int o = 2 * j;
+        return hermite(floatBuffer.get(o), floatBuffer.get(o + 1), floatBuffer.get(o + 2), floatBuffer.get(o + 3), t);
+    }
+
+    private static double linear(double y0, double y1, double t) {
+        return clamp(y0 + t * (y1 - y0), y0, y1);
+    }
+
+    private static double hermite(double y0, double d0, double y1, double d1, double t) {
+        return clamp(cubic(y0, d0, y1, d1, t), y0, y1);
+    }
+
+    private static double cubic(double y0, double d0, double y1, double d1, double t) {
+        final double dy = y1 - y0;
+        return y0 + t * (d0 + t * ((3.0 * dy - 2.0 * d0 - d1) + t * (d0 + d1 - 2.0 * dy)));
+    }
+
+    // the interpolating polynomial on cell j at fraction t, before clamping
+    private double unclamped(int j, double t) {
+        if (interpolation == Interpolation.LINEAR) {
+            final double y0 = entry(j);
+            return y0 + t * (entry(j + 1) - y0);
+        }
+        final int o = 2 * j;
+        return cubic(entry(o), entry(o + 1), entry(o + 2), entry(o + 3), t);
+    }
+
+    // table entry i in any layout, for building and measuring the table rather than evaluating it
+    private double entry(int i) {
+        if (doubles != null) return doubles[i];
+        if (floats != null) return floats[i];
+        if (doubleBuffer != null) return doubleBuffer.get(i);
+        return floatBuffer.get(i);
+    }
+
+    private static double clamp(double v, double lo, double hi) {
+        return (v < lo) ? lo : ((v > hi) ? hi : v);
+    }
+
+    private double node(int j) {
+        return (j == size - 1) ? xmax : xmin + ((xmax - xmin) * (double)j) / (double)(size - 1);
+    }
+
+    // Fritsch-Carlson: scale the (spacing-normalized) derivatives d of each cell into the circle of radius 3,
+    // relative to the cell's secant, which is sufficient for the Hermite cubic to be monotone. With toFloat,
+    // the scaled derivatives are rounded to float toward zero: shrinking either one keeps the cell inside the
+    // circle, where rounding to nearest could push it back out.
+    private static void limit(double[] y, double[] d, boolean toFloat) {
+        for (int j = 0; j < y.length; ++j) if (!(d[j] > 0.0)) d[j] = 0.0;
+        for (int j = 0; j < y.length - 1; ++j) {
+            final double dy = y[j + 1] - y[j];
+            if (!(dy > 0.0)) {
+                d[j] = 0.0;
+                d[j + 1] = 0.0;
+                continue;
+            }
+            final double a = d[j] / dy;
+            final double b = d[j + 1] / dy;
+            final double r = a * a + b * b;
+            if (r > 9.0) {
+                final double s = 3.0 / Math.sqrt(r);
+                d[j] = s * a * dy;
+                d[j + 1] = s * b * dy;
+                if (toFloat) {
+                    d[j] = floatTowardZero(d[j]);
+                    d[j + 1] = floatTowardZero(d[j + 1]);
+                }
+            }
+        }
+    }
+
+    // the largest float that is <= v, for v >= 0
+    private static double floatTowardZero(double v) {
+        float r = (float)v;
+        if ((double)r > v) r = Math.nextDown(r);
+        return (double)r;
+    }
+
+    // The exact maximum of |table - f| over every cell. Between consecutive spline knots inside a cell, the
+    // difference between the spline and the unclamped interpolant is a cubic, so its maximum is at the ends of
+    // the piece or at a root of its derivative. Clamping to the node values never raises the error above that
+    // of the unclamped interpolant or the nodes, since the spline itself stays between its values at the nodes.
+    private double measureError(MonotonicSplineFunction f) {
+        double err = 0.0;
+        int i = 1;
+        for (int j = 0; j < size - 1; ++j) {
+            final double x0 = node(j);
+            final double x1 = node(j + 1);
+            final double h = x1 - x0;
+            while (i < f.m && f.knot[i] <= x0) ++i;
+            double p = x0;
+            while (true) {
+                final double q = (i < f.m && f.knot[i] < x1) ? f.knot[i] : x1;
+                err = Math.max(err, pieceError(f, j, x0, h, p, q));
+                if (q == x1) break;
+                p = q;
+                ++i;
+            }
+        }
+        // allow for rounding in evaluating the table and the spline
+        final double ymax = Math.max(Math.abs(f.getYMin()), Math.abs(f.getYMax()));
+        return err + ROUNDING_ULPS * Math.ulp(ymax);
+    }
+
+    // max |f - table| on [p, q] inside cell j, where the difference is a cubic
+    private double pieceError(MonotonicSplineFunction f, int j, double x0, double h, double p, double q) {
+        final double w = (q - p) / 3.0;
+        final double[] e = new double[4];
+        for (int k = 0; k < 4; ++k) {
+            final double x = (k == 3) ? q : p + k * w;
+            e[k] = f.value(x) - unclamped(j, (x - x0) / h);
+        }
+        double err = Math.max(Math.abs(e[0]), Math.abs(e[3]));
+        // Newton form in s = (x - p) / w: the derivative is a s^2 + b s + c
+        final double d1 = e[1] - e[0];
+        final double d2 = e[2] - 2.0 * e[1] + e[0];
+        final double d3 = e[3] - 3.0 * e[2] + 3.0 * e[1] - e[0];
+        final double a = d3 / 2.0;
+        final double b = d2 - d3;
+        final double c = d1 - d2 / 2.0 + d3 / 3.0;
+        final double[] roots = new double[2];
+        int n = 0;
+        if (a == 0.0) {
+            if (b != 0.0) roots[n++] = -c / b;
+        } else {
+            final double disc = b * b - 4.0 * a * c;
+            if (disc >= 0.0) {
+                // the numerically stable form of the two roots
+                final double r = -0.5 * (b + Math.copySign(Math.sqrt(disc), b));
+                roots[n++] = r / a;
+                if (r != 0.0) roots[n++] = c / r;
+            }
+        }
+        for (int k = 0; k < n; ++k) {
+            final double s = roots[k];
+            if (!(s > 0.0 && s < 3.0)) continue;
+            final double x = p + s * w;
+            err = Math.max(err, Math.abs(f.value(x) - unclamped(j, (x - x0) / h)));
+        }
+        return err;
+    }
+
+    /**
+     * Configures and builds a {@link MonotonicSplineTable}.
+     */
+    public static final class Builder {
+        private int size = SIZE_DEFAULT;
+        private Interpolation interpolation = Interpolation.LINEAR;
+        private Precision precision = Precision.DOUBLE;
+        private boolean direct = false;
+
+        private Builder() {
+        }
+
+        /**
+         * @param f the spline to tabulate
+         * @return a table of f with the current settings of this builder
+         */
+        public MonotonicSplineTable build(MonotonicSplineFunction f) {
+            return new MonotonicSplineTable(this, f);
+        }
+
+        /**
+         * Set the number of table nodes, spaced uniformly over the interpolation domain including both ends.
+         * @param size the number of nodes, &ge; 2 and &le; (Integer.MAX_VALUE - 8) / 2, so that a Hermite
+         * table of two entries per node fits in one array. Defaults to 1024.
+         * @return this builder
+         */
+        public Builder setSize(int size) {
+            if (size < 2)
+                throw new IllegalArgumentException("size must be >= 2");
+            if (size > SIZE_MAX)
+                throw new IllegalArgumentException("size must be <= " + SIZE_MAX);
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * @param interpolation how values between nodes are interpolated. Defaults to LINEAR.
+         * @return this builder
+         */
+        public Builder setInterpolation(Interpolation interpolation) {
+            if (interpolation == null)
+                throw new IllegalArgumentException("interpolation cannot be null");
+            this.interpolation = interpolation;
+            return this;
+        }
+
+        /**
+         * @param precision the precision of stored table entries. Defaults to DOUBLE.
+         * @return this builder
+         */
+        public Builder setPrecision(Precision precision) {
+            if (precision == null)
+                throw new IllegalArgumentException("precision cannot be null");
+            this.precision = precision;
+            return this;
+        }
+
+        /**
+         * @param direct true to store the table in a direct (off-heap) buffer. Defaults to false.
+         * @return this builder
+         */
+        public Builder setDirect(boolean direct) {
+            this.direct = direct;
+            return this;
+        }
+    }
+
+    static final int SIZE_DEFAULT = 1024;
+    static final int SIZE_MAX = (Integer.MAX_VALUE - 8) / 2;
+
+    // layout bits, and the eight evaluation methods they select
+    private static final int HERMITE_BIT = 4;
+    private static final int FLOAT_BIT = 2;
+    private static final int DIRECT_BIT = 1;
+    private static final int LINEAR_DOUBLE_ARRAY = 0;
+    private static final int LINEAR_DOUBLE_DIRECT = DIRECT_BIT;
+    private static final int LINEAR_FLOAT_ARRAY = FLOAT_BIT;
+    private static final int LINEAR_FLOAT_DIRECT = FLOAT_BIT | DIRECT_BIT;
+    private static final int HERMITE_DOUBLE_ARRAY = HERMITE_BIT;
+    private static final int HERMITE_DOUBLE_DIRECT = HERMITE_BIT | DIRECT_BIT;
+    private static final int HERMITE_FLOAT_ARRAY = HERMITE_BIT | FLOAT_BIT;
+    // rounding allowance added to the measured error, in units of the largest spline value
+    private static final double ROUNDING_ULPS = 8.0;
+}
@@ -0,0 +1,128 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.nio.ByteBuffer;
+
+import org.apache.commons.math3.exception.OutOfRangeException;
+
+import org.apache.commons.math3.analysis.UnivariateFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineFormat.HEADER_BYTES;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineFormat.M_OFFSET;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineFormat.XMIN_OFFSET;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineFormat.XMAX_OFFSET;
+
+/**
+ * A fitted spline evaluated directly from its {@link MonotonicSplineFormat} record in a buffer, without
+ * copying the coefficients. Each evaluation reads the four coefficients of the interval containing x,
+ * and computes the same value as {@link MonotonicSplineFit#toPolynomialSplineFunction()}.
+ * <p>
+ * Views are created by {@link MonotonicSplineFormat#view(ByteBuffer)} and related methods. Use
+ * {@link #toFit()} to copy a record, for example to warm-start a refit or to build a
+ * {@link MonotonicSplineFunction}.
+ */
+public final class MonotonicSplineView implements UnivariateFunction {
+    // a little-endian slice holding exactly one record
+    private final ByteBuffer rec;
+    private final int m;
+    private final double xmin;
+    private final double xmax;
+    private final double alpha;
+
+    MonotonicSplineView(ByteBuffer rec) {
+        this.rec = rec;
+        this.m = rec.getInt(M_OFFSET);
+        this.xmin = rec.getDouble(XMIN_OFFSET);
+        this.xmax = rec.getDouble(XMAX_OFFSET);
+        // the same as MonotonicSplineFit
+        this.alpha = (double)m / (xmax - xmin);
+    }
+
+    /** the number of spline intervals (m) */
+    public int getM() {
+        return m;
+    }
+
+    /** the lower bound of the interpolation domain */
+    public double getXMin() {
+        return xmin;
+    }
+
+    /** the upper bound of the interpolation domain */
+    public double getXMax() {
+        return xmax;
+    }
+
+    /**
+     * @param k a coefficient index, 0 &le; k &lt; m + 3
+     * @return the B-spline coefficient tau[k]
+     */
+    public double getCoefficient(int k) {
+        if ((k < 0) || (k >= m + 3)) throw new OutOfRangeException(k, 0, m + 2);
+        return tau(k);
+    }
+
+    /** a fit holding a copy of this record */
+    public MonotonicSplineFit toFit() {
+        double[] tau = new double[m + 3];
+        for (int k = 0; k < tau.length; ++k) tau[k] = tau(k);
+        return new MonotonicSplineFit(tau, xmin, xmax);
+    }
+
+    /**
+     * @param x a point in the interpolation domain
+     * @return the value of the spline at x
+     * @throws OutOfRangeException if x is outside the interpolation domain
+     */
+    public double value(double x) {
+        return value(rec, 0, m, xmin, alpha, x);
+    }
+
+    /**
+     * Evaluate the record at offset p of a little-endian buffer, reading only the four coefficients of the
+     * interval containing x. The header fields are passed in by the caller.
+     */
+    static double value(ByteBuffer b, int p, int m, double xmin, double alpha, double x) {
+        final double k0 = xmin;
+        final double km = xmin + ((double)m / alpha);
+        if (!((x >= k0) && (x <= km))) throw new OutOfRangeException(x, k0, km);
+        // as with MonotonicSplineFunction, correct the interval for rounding against the knots
+        int j = (int)((x - xmin) * alpha);
+        if (j >= m) j = m - 1;
+        if (x < xmin + ((double)j / alpha)) --j;
+        else if ((j < m - 1) && (x >= xmin + ((double)(j + 1) / alpha))) ++j;
+        // MSISupport.standardCoefficientsB3(3 + j, tau, alpha), without the allocation
+        final int o = p + HEADER_BYTES + 8 * j;
+        final double t0 = b.getDouble(o);
+        final double t1 = b.getDouble(o + 8);
+        final double t2 = b.getDouble(o + 16);
+        final double t3 = b.getDouble(o + 24);
+        double a = 1.0 / 6.0;
+        final double c0 = a * (t2 + (4.0 * t1) + t0);
+        a *= alpha;
+        final double c1 = a * ((3.0 * t2) - (3.0 * t0));
+        a *= alpha;
+        final double c2 = a * ((3.0 * t2) - (6.0 * t1) + (3.0 * t0));
+        a *= alpha;
+        final double c3 = a * (t3 - (3.0 * t2) + (3.0 * t1) - t0);
+        final double t = x - (xmin + ((double)j / alpha));
+        return ((c3 * t + c2) * t + c1) * t + c0;
+    }
+
+    private double tau(int k) {
+        return rec.getDouble(HEADER_BYTES + 8 * k);
+    }
+}
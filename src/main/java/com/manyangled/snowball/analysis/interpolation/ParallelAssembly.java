@@ -0,0 +1,62 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.optim.OptimizationData;
+
+/**
+ * An interpolation option that builds the fitting objective in parallel. The data are split into
+ * chunks of at most {@code grain} points, the statistics of each chunk are accumulated by a separate
+ * fork/join task, and the partial statistics are summed at the end.
+ * <p>
+ * Pass an instance to {@link MonotonicSplineInterpolator#addInterpolationOptions(OptimizationData...)}.
+ * Building the objective is linear in the number of data points, so this pays off only for large data.
+ */
+public class ParallelAssembly implements OptimizationData {
+    /** the pool that runs the assembly tasks */
+    public final ForkJoinPool pool;
+
+    /** the maximum number of data points accumulated by a single task */
+    public final int grain;
+
+    /**
+     * @param pool the pool that runs the assembly tasks
+     * @param grain the maximum number of data points accumulated by a single task. Must be &gt; 0.
+     */
+    public ParallelAssembly(ForkJoinPool pool, int grain) {
+        if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+        if (grain <= 0) throw new IllegalArgumentException("grain must be > 0");
+        this.pool = pool;
+        this.grain = grain;
+    }
+
+    /**
+     * @param pool the pool that runs the assembly tasks
+     */
+    public ParallelAssembly(ForkJoinPool pool) {
+        this(pool, GRAIN_DEFAULT);
+    }
+
+    /**
+     * Assemble on the common fork/join pool.
+     */
+    public ParallelAssembly() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** The default maximum number of data points accumulated by a single task */
+    public static final int GRAIN_DEFAULT = 16384;
+}
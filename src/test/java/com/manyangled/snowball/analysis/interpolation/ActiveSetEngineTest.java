@@ -0,0 +1,86 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineAccumulatorTest.assertSameSpline;
+
+public class ActiveSetEngineTest {
+    // fit with the barrier engine and the active set engine, and check that they agree
+    static PolynomialSplineFunction compare(MonotonicSplineInterpolator interpolator, double[] x, double[] y) {
+        PolynomialSplineFunction ref = interpolator.interpolate(x, y);
+        interpolator.addInterpolationOptions(new ActiveSetEngine());
+        PolynomialSplineFunction s = interpolator.interpolate(x, y);
+        testMonotone(s);
+        assertSameSpline(ref, s, 1e-4);
+        return s;
+    }
+
+    @Test
+    public void testUnconstrained() {
+        double[] x = { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0 };
+        double[] y = { 0.0, 0.05, 0.02, 0.3, 0.5, 0.7, 0.99, 0.95, 1.0 };
+        compare(new MonotonicSplineInterpolator(), x, y);
+    }
+
+    @Test
+    public void testDecreasing() {
+        // the optimal monotone fit is constant, with every monotonicity constraint active
+        double[] x = { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0 };
+        double[] y = { 9.0, 8.0, 7.0, 6.0, 5.0, 4.0, 3.0, 2.0, 1.0 };
+        PolynomialSplineFunction s = compare(new MonotonicSplineInterpolator(), x, y);
+        for (double t = 1.0; t <= 9.0; t += 0.5) assertThat(s.value(t), closeTo(5.0, 1e-9));
+    }
+
+    @Test
+    public void testConstraints() {
+        double[] x = { 1.0, 2.0, 3.0,  4.0, 5.0, 6.0, 7.0,  8.0, 9.0 };
+        double[] y = { 0.0, 0.2, 0.05, 0.3, 0.5, 0.7, 0.95, 0.8, 1.0 };
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.addGreaterThanConstraint(1.0, 0.1);
+        interpolator.addLessThanConstraint(9.0, 0.9);
+        interpolator.addEqualityConstraint(5.0, 0.555);
+        interpolator.addGradientEqualityConstraint(3.0, 0.1);
+        PolynomialSplineFunction s = compare(interpolator, x, y);
+        // active inequality constraints are satisfied exactly
+        assertThat(s.value(1.0), closeTo(0.1, 1e-12));
+        assertThat(s.value(9.0), closeTo(0.9, 1e-12));
+        assertThat(s.value(5.0), closeTo(0.555, 1e-12));
+        assertThat(s.polynomialSplineDerivative().value(3.0), closeTo(0.1, 1e-12));
+    }
+
+    @Test
+    public void testNoisyData() {
+        Random rng = new Random(23);
+        final int n = 500;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = 10.0 * rng.nextDouble();
+            y[j] = Math.tanh(x[j] - 5.0) + 0.3 * rng.nextGaussian();
+        }
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setM(20);
+        compare(interpolator, x, y);
+    }
+}
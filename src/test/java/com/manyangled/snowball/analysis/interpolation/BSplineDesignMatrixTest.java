@@ -0,0 +1,124 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.*;
+
+public class BSplineDesignMatrixTest {
+    static double[] knots(int m, double xmin, double alpha) {
+        double[] K = new double[m + 3];
+        for (int j = -3; j < m; ++j) K[3 + j] = xmin + ((double)j / alpha);
+        return K;
+    }
+
+    static double[][] denseBT(double alpha, double[] K, double[] u) {
+        double[][] bt = new double[u.length][K.length];
+        for (int j = 0; j < u.length; ++j)
+            for (int k = 0; k < K.length; ++k)
+                bt[j][k] = B3(alpha * (u[j] - K[k]));
+        return bt;
+    }
+
+    @Test
+    public void testEntries() {
+        int m = 6;
+        double xmin = -1.0;
+        double xmax = 2.0;
+        double alpha = (double)m / (xmax - xmin);
+        double[] K = knots(m, xmin, alpha);
+        // includes points on knots, at the bounds, and outside the domain
+        double[] u = { -3.0, -1.5, -1.0, -0.75, -0.5, 0.0, 0.1, 0.5, 1.2345, 1.5, 1.99, 2.0, 2.2 };
+        double[][] ref = denseBT(alpha, K, u);
+        RealMatrix BT = matrixBT(alpha, K, u);
+        assertEquals(u.length, BT.getRowDimension());
+        assertEquals(K.length, BT.getColumnDimension());
+        for (int j = 0; j < u.length; ++j)
+            for (int k = 0; k < K.length; ++k)
+                assertEquals(ref[j][k], BT.getEntry(j, k), 1e-15);
+    }
+
+    // the dense weighted Gram matrix B W B^T from Eq(15)
+    static double[][] denseGram(double[][] bt, double[] w) {
+        final int M = bt[0].length;
+        double[][] G = new double[M][M];
+        for (int a = 0; a < M; ++a)
+            for (int b = 0; b < M; ++b)
+                for (int j = 0; j < bt.length; ++j)
+                    G[a][b] += bt[j][a] * w[j] * bt[j][b];
+        return G;
+    }
+
+    @Test
+    public void testWeightedGram() {
+        int m = 5;
+        double xmin = 0.0;
+        double xmax = 10.0;
+        double alpha = (double)m / (xmax - xmin);
+        double[] K = knots(m, xmin, alpha);
+        double[] u = new double[50];
+        double[] d = new double[50];
+        double[] w = new double[50];
+        for (int j = 0; j < u.length; ++j) {
+            u[j] = xmax * (double)j / (double)(u.length - 1);
+            w[j] = 1.0 + (j % 3);
+        }
+        double[][] ref = denseGram(denseBT(alpha, K, u), w);
+        GramAccumulator acc = new GramAccumulator(alpha, K);
+        acc.add(u, d, w);
+        double[][] G = acc.gram();
+        for (int a = 0; a < K.length; ++a)
+            for (int b = 0; b < K.length; ++b)
+                assertEquals(ref[a][b], G[a][b], 1e-12);
+    }
+
+    @Test
+    public void testGramAccumulator() {
+        int m = 7;
+        double xmin = 1.0;
+        double xmax = 3.0;
+        double alpha = (double)m / (xmax - xmin);
+        double[] K = knots(m, xmin, alpha);
+        double[] u = new double[40];
+        double[] d = new double[40];
+        double[] w = new double[40];
+        for (int j = 0; j < u.length; ++j) {
+            u[j] = xmin + (xmax - xmin) * (double)j / (double)(u.length - 1);
+            d[j] = Math.sin(u[j]);
+            w[j] = 0.5 + (j % 4);
+        }
+        double[][] bt = denseBT(alpha, K, u);
+        double[][] refG = denseGram(bt, w);
+        double[] refBWD = new double[K.length];
+        double refR = 0.0;
+        for (int j = 0; j < u.length; ++j) {
+            for (int k = 0; k < K.length; ++k) refBWD[k] += bt[j][k] * w[j] * d[j];
+            refR += w[j] * d[j] * d[j];
+        }
+
+        GramAccumulator acc = new GramAccumulator(alpha, K);
+        acc.add(u, d, w);
+        double[][] G = acc.gram();
+        for (int a = 0; a < K.length; ++a) {
+            assertEquals(refBWD[a], acc.bwd[a], 1e-12);
+            for (int b = 0; b < K.length; ++b)
+                assertEquals(refG[a][b], G[a][b], 1e-12);
+        }
+        assertEquals(refR, acc.r, 1e-12);
+    }
+}
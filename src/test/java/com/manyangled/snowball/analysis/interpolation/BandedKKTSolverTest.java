@@ -0,0 +1,98 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+
+import com.manyangled.gibbous.optim.convex.KKTSolution;
+import com.manyangled.gibbous.optim.convex.SVDSchurKKTSolver;
+
+public class BandedKKTSolverTest {
+    static RealMatrix bandedSPD(int n, int p, Random rng) {
+        double[][] h = new double[n][n];
+        for (int i = 0; i < n; ++i) {
+            h[i][i] = 2.0 * (double)p + rng.nextDouble();
+            for (int d = 1; (d <= p) && (i + d < n); ++d) {
+                double v = rng.nextDouble();
+                h[i][i + d] = v;
+                h[i + d][i] = v;
+            }
+        }
+        return new Array2DRowRealMatrix(h, false);
+    }
+
+    static RealVector random(int n, Random rng) {
+        double[] v = new double[n];
+        for (int j = 0; j < n; ++j) v[j] = rng.nextDouble() - 0.5;
+        return new ArrayRealVector(v, false);
+    }
+
+    @Test
+    public void testBandedCholesky() {
+        Random rng = new Random(7);
+        RealMatrix H = bandedSPD(40, 3, rng);
+        assertEquals(3, BandedCholesky.bandwidth(H));
+        double[] b = random(40, rng).toArray();
+        double[] x = BandedCholesky.factor(H, 3).solve(b);
+        double[] hx = H.operate(x);
+        for (int j = 0; j < b.length; ++j) assertEquals(b[j], hx[j], 1e-12);
+    }
+
+    @Test
+    public void testUnconstrained() {
+        Random rng = new Random(11);
+        RealMatrix H = bandedSPD(30, 3, rng);
+        RealVector g = random(30, rng);
+        KKTSolution ref = (new SVDSchurKKTSolver()).solve(H, g);
+        KKTSolution sol = (new BandedKKTSolver()).solve(H, g);
+        assertEquals(0.0, sol.xDelta.subtract(ref.xDelta).getLInfNorm(), 1e-12);
+        assertEquals(ref.lambdaSquared, sol.lambdaSquared, 1e-12);
+    }
+
+    @Test
+    public void testEqualityConstrained() {
+        Random rng = new Random(13);
+        final int n = 30;
+        RealMatrix H = bandedSPD(n, 3, rng);
+        RealMatrix A = new Array2DRowRealMatrix(2, n);
+        for (int k = 0; k < 4; ++k) {
+            A.setEntry(0, 3 + k, rng.nextDouble());
+            A.setEntry(1, 20 + k, rng.nextDouble());
+        }
+        RealVector g = random(n, rng);
+        RealVector h = random(2, rng);
+        KKTSolution ref = (new SVDSchurKKTSolver()).solve(H, A, A.transpose(), g, h);
+        KKTSolution sol = (new BandedKKTSolver()).solve(H, A, A.transpose(), g, h);
+        assertEquals(0.0, sol.xDelta.subtract(ref.xDelta).getLInfNorm(), 1e-12);
+        assertEquals(0.0, sol.nuPlus.subtract(ref.nuPlus).getLInfNorm(), 1e-12);
+    }
+
+    @Test
+    public void testDenseFallback() {
+        Random rng = new Random(17);
+        RealMatrix H = bandedSPD(12, 11, rng);
+        RealVector g = random(12, rng);
+        KKTSolution ref = (new SVDSchurKKTSolver()).solve(H, g);
+        KKTSolution sol = (new BandedKKTSolver()).solve(H, g);
+        assertEquals(0.0, sol.xDelta.subtract(ref.xDelta).getLInfNorm(), 1e-12);
+    }
+}
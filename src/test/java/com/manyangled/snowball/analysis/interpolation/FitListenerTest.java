@@ -0,0 +1,126 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+import com.manyangled.gibbous.optim.convex.SVDSchurKKTSolver;
+
+public class FitListenerTest {
+    static class Recorder implements FitListener {
+        EnumMap<FitListener.Stage, Long> nanos = new EnumMap<FitListener.Stage, Long>(FitListener.Stage.class);
+        EnumMap<FitListener.Stage, Long> bytes = new EnumMap<FitListener.Stage, Long>(FitListener.Stage.class);
+        ArrayList<Object[]> solves = new ArrayList<Object[]>();
+
+        @Override
+        public void stage(FitListener.Stage stage, long n, long b) {
+            nanos.put(stage, n);
+            bytes.put(stage, b);
+        }
+
+        @Override
+        public void solved(int outer, int inner, double gap, int nIneq, int nEq) {
+            solves.add(new Object[] { outer, inner, gap, nIneq, nEq });
+        }
+    }
+
+    @Test
+    public void testBarrier() {
+        double[][] d = MonotonicSplineFitTest.data(new Random(3), 500);
+        Recorder r = new Recorder();
+        MonotonicSplineInterpolator interpolator = MonotonicSplineFitTest.interpolator();
+        interpolator.addInterpolationOptions(r);
+        MonotonicSplineFit fit = interpolator.fit(d[0], d[1]);
+        assertTrue(r.nanos.containsKey(FitListener.Stage.ASSEMBLY));
+        assertTrue(r.nanos.containsKey(FitListener.Stage.OBJECTIVE));
+        assertTrue(r.nanos.containsKey(FitListener.Stage.SOLVE));
+        assertFalse(r.nanos.containsKey(FitListener.Stage.PHASE1));
+        assertTrue(r.nanos.get(FitListener.Stage.SOLVE) > 0L);
+        // the objective includes a dense (m+3) x (m+3) Hessian, if allocation is reported
+        long ob = r.bytes.get(FitListener.Stage.OBJECTIVE);
+        assertTrue((ob == -1L) || (ob >= 8L * 15 * 15));
+        assertEquals(1, r.solves.size());
+        Object[] s = r.solves.get(0);
+        int outer = (Integer)s[0];
+        int inner = (Integer)s[1];
+        double gap = (Double)s[2];
+        assertTrue(outer > 1);
+        assertEquals(fit.getIterations(), outer);
+        assertTrue(inner >= outer);
+        // 4m monotonicity constraints
+        assertEquals(48, s[3]);
+        assertEquals(0, s[4]);
+        // the barrier method stops once the gap falls below its convergence epsilon (1e-9),
+        // so the gap at its last centering step is within one factor of mu (15) of that
+        assertTrue(gap >= 1e-9);
+        assertTrue(gap < 15e-9);
+
+        // an equality constraint is met by moving the analytic start onto it, without phase 1
+        interpolator.addEqualityConstraint(5.0, 0.0);
+        interpolator.fit(d[0], d[1]);
+        assertFalse(r.nanos.containsKey(FitListener.Stage.PHASE1));
+        assertEquals(1, r.solves.get(1)[4]);
+        // an inequality constraint that excludes the start requires phase 1
+        interpolator.addLessThanConstraint(8.0, 0.5);
+        interpolator.fit(d[0], d[1]);
+        assertTrue(r.nanos.containsKey(FitListener.Stage.PHASE1));
+    }
+
+    @Test
+    public void testUserKKTSolver() {
+        double[][] d = MonotonicSplineFitTest.data(new Random(3), 500);
+        Recorder r = new Recorder();
+        MonotonicSplineInterpolator interpolator = MonotonicSplineFitTest.interpolator();
+        interpolator.addInterpolationOptions(r, new SVDSchurKKTSolver());
+        MonotonicSplineFit fit = interpolator.fit(d[0], d[1]);
+        // outer iterations are still counted, but Newton steps solved by another solver are not
+        assertTrue(fit.getIterations() > 1);
+        assertEquals(fit.getIterations(), r.solves.get(0)[0]);
+        assertEquals(-1, r.solves.get(0)[1]);
+    }
+
+    @Test
+    public void testActiveSet() {
+        double[][] d = MonotonicSplineFitTest.data(new Random(5), 500);
+        Recorder r = new Recorder();
+        MonotonicSplineInterpolator interpolator = MonotonicSplineFitTest.interpolator();
+        interpolator.addInterpolationOptions(new ActiveSetEngine(), r);
+        MonotonicSplineFit fit = interpolator.fit(d[0], d[1]);
+        assertEquals(1, r.solves.size());
+        Object[] s = r.solves.get(0);
+        assertEquals(fit.getIterations(), s[0]);
+        assertEquals(0.0, (Double)s[2], 0.0);
+    }
+
+    @Test
+    public void testSketch() {
+        double[][] d = MonotonicSplineFitTest.data(new Random(7), 500);
+        Recorder r = new Recorder();
+        MonotonicSplineInterpolator interpolator = MonotonicSplineFitTest.interpolator();
+        interpolator.addInterpolationOptions(r);
+        MonotonicSplineSketch sketch = interpolator.sketch().add(d[0], d[1]);
+        interpolator.interpolate(sketch);
+        // the data was accumulated by the sketch, not the fit
+        assertFalse(r.nanos.containsKey(FitListener.Stage.ASSEMBLY));
+        assertTrue(r.nanos.containsKey(FitListener.Stage.SOLVE));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNotSame;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.*;
+
+public class FitPlanTest {
+    @Test
+    public void testPlan() {
+        FitPlan plan = FitPlan.of(7, 1.0, 3.0);
+        double alpha = 7.0 / 2.0;
+        assertEquals(10, plan.M);
+        assertEquals(alpha, plan.alpha, 0.0);
+        double[] K = knots(7, 1.0, alpha);
+        for (int j = 0; j < K.length; ++j) assertEquals(K[j], plan.tk[j], 0.0);
+        // Q is scaled by lambda where it is used
+        RealMatrix lq = lambdaQ(10, 0.5, alpha);
+        for (int j = 0; j < 10; ++j)
+            for (int k = 0; k < 10; ++k)
+                assertEquals(lq.getEntry(j, k), 0.5 * plan.q.getEntry(j, k), 1e-12 * Math.abs(lq.getEntry(j, k)));
+        assertEquals(28, plan.monotone.lcf.length);
+    }
+
+    @Test
+    public void testCache() {
+        FitPlan plan = FitPlan.of(9, 0.0, 1.0);
+        assertSame(plan, FitPlan.of(9, 0.0, 1.0));
+        assertNotSame(plan, FitPlan.of(10, 0.0, 1.0));
+        assertNotSame(plan, FitPlan.of(9, 0.0, 2.0));
+        assertNotSame(plan, FitPlan.uncached(9, 0.0, 1.0));
+        FitPlan.clearCache();
+        assertNotSame(plan, FitPlan.of(9, 0.0, 1.0));
+    }
+
+    @Test
+    public void testCacheBytes() {
+        FitPlan plan = FitPlan.of(9, 0.0, 1.0);
+        // the cache is bounded by the size of its plans: the least recently used plans are evicted
+        FitPlan large = FitPlan.of(1000, 0.0, 1.0);
+        final long n = FitPlan.CACHE_BYTES / large.bytes();
+        for (int j = 0; j <= n; ++j) FitPlan.of(1000, 0.0, 2.0 + j);
+        assertNotSame(plan, FitPlan.of(9, 0.0, 1.0));
+        assertNotSame(large, FitPlan.of(1000, 0.0, 1.0));
+    }
+}
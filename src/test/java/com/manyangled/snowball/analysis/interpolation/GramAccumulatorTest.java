@@ -0,0 +1,95 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNull;
+
+import org.apache.commons.math3.optim.OptimizationData;
+
+import com.manyangled.gibbous.optim.convex.LinearEqualityConstraint;
+
+import static com.manyangled.snowball.analysis.interpolation.MSISupport.*;
+
+public class GramAccumulatorTest {
+    // decreasing data over part of [0, 1], and no data over the rest
+    static GramAccumulator data(int m) {
+        GramAccumulator acc = new GramAccumulator(m, 0.0, 1.0);
+        for (int j = 0; j < 50; ++j) {
+            double x = 0.6 * (double)j / 49.0;
+            acc.add(x, 3.0 - x + 0.1 * Math.sin(40.0 * x), 1.0);
+        }
+        return acc;
+    }
+
+    static LinearEqualityConstraint equalities(GramAccumulator acc, double[] x, double[] y) {
+        return linearEqualityConstraint(acc.tk, acc.alpha, 0.0, 1.0, x, y, new double[0], new double[0]);
+    }
+
+    @Test
+    public void testMonotoneStart() {
+        final int m = 12;
+        GramAccumulator acc = data(m);
+        double[] tau = acc.monotoneStart();
+        for (int k = 1; k < tau.length; ++k) assertTrue(tau[k] > tau[k - 1]);
+        ArrayList<OptimizationData> opts = new ArrayList<OptimizationData>();
+        opts.add(monotoneConstraints(m, m + 3));
+        assertSame(tau, strictlyFeasible(tau, opts));
+        // the start stays within the range of the data
+        for (int k = 0; k < tau.length; ++k) assertEquals(2.7, tau[k], 0.5);
+    }
+
+    @Test
+    public void testProjectedStart() {
+        final int m = 12;
+        GramAccumulator acc = data(m);
+        double[] tau = acc.monotoneStart();
+        ArrayList<OptimizationData> opts = new ArrayList<OptimizationData>();
+        opts.add(monotoneConstraints(m, m + 3));
+        // increasing values, one of them given twice
+        double[] x = { 0.0, 0.5, 1.0, 0.5 };
+        double[] y = { 2.6, 2.7, 2.8, 2.7 };
+        LinearEqualityConstraint eqc = equalities(acc, x, y);
+        opts.add(eqc);
+        double[] p = strictlyFeasible(tau, opts);
+        for (int i = 0; i < x.length; ++i) {
+            double v = 0.0;
+            for (int k = 0; k < p.length; ++k) v += eqc.A.getEntry(i, k) * p[k];
+            assertEquals(y[i], v, 1e-12);
+        }
+        for (int k = 1; k < p.length; ++k) assertTrue(p[k] > p[k - 1]);
+    }
+
+    @Test
+    public void testExcludedStart() {
+        final int m = 12;
+        GramAccumulator acc = data(m);
+        double[] tau = acc.monotoneStart();
+        ArrayList<OptimizationData> opts = new ArrayList<OptimizationData>();
+        opts.add(monotoneConstraints(m, m + 3));
+        // the projected start is decreasing, so a phase-1 solve is needed
+        opts.add(equalities(acc, new double[] { 0.2, 0.4 }, new double[] { 3.0, 2.0 }));
+        assertNull(strictlyFeasible(tau, opts));
+        // inconsistent equality constraints cannot be met at all
+        opts.remove(1);
+        opts.add(equalities(acc, new double[] { 0.5, 0.5 }, new double[] { 2.0, 3.0 }));
+        assertNull(projectEqualities(tau, opts));
+    }
+}
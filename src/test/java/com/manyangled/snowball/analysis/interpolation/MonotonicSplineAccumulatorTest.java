@@ -0,0 +1,141 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.ArrayList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+
+public class MonotonicSplineAccumulatorTest {
+    static final double[] x = { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0 };
+    static final double[] y = { 0.0, 0.05, 0.02, 0.3, 0.5, 0.7, 0.99, 0.95, 1.0 };
+
+    public static void assertSameSpline(PolynomialSplineFunction s1, PolynomialSplineFunction s2, double eps) {
+        double[] K = s1.getKnots();
+        double xmin = K[0];
+        double xmax = K[K.length - 1];
+        for (double x = xmin; x <= xmax; x += (xmax - xmin) / 100.0)
+            assertEquals(s1.value(x), s2.value(x), eps);
+    }
+
+    static MonotonicSplineInterpolator interpolator() {
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setBounds(1.0, 9.0);
+        return interpolator;
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testChunks() {
+        PolynomialSplineFunction ref = interpolator().interpolate(x, y);
+        MonotonicSplineAccumulator acc = interpolator().accumulator();
+        acc.add(new double[] { 1.0, 2.0, 3.0 }, new double[] { 0.0, 0.05, 0.02 });
+        acc.add(4.0, 0.3);
+        acc.add(5.0, 0.5, 1.0);
+        acc.add(DoubleBuffer.wrap(new double[] { 6.0, 7.0 }), DoubleBuffer.wrap(new double[] { 0.7, 0.99 }));
+        ArrayList<double[]> rest = new ArrayList<double[]>();
+        rest.add(new double[] { 8.0, 0.95 });
+        rest.add(new double[] { 9.0, 1.0, 1.0 });
+        acc.add(rest.iterator());
+        assertEquals(9, acc.size());
+        PolynomialSplineFunction s = acc.fit();
+        testMonotone(s);
+        assertSameSpline(ref, s, 1e-6);
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        double[] w = { 1.0, 2.0, 1.0, 3.0, 1.0, 1.0, 2.0, 1.0, 1.0 };
+        MonotonicSplineInterpolator ri = interpolator();
+        ri.setW(w);
+        PolynomialSplineFunction ref = ri.interpolate(x, y);
+
+        ByteBuffer bytes = ByteBuffer.allocate(3 * Double.BYTES * x.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int j = 0; j < x.length; ++j) bytes.putDouble(x[j]).putDouble(y[j]).putDouble(w[j]);
+        File f = tmp.newFile("xyw.bin");
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(bytes.array());
+        }
+        MonotonicSplineAccumulator acc = interpolator().accumulator();
+        acc.addFile(f.toPath(), ByteOrder.LITTLE_ENDIAN, true);
+        PolynomialSplineFunction s = acc.fit();
+        testMonotone(s);
+        assertSameSpline(ref, s, 1e-6);
+    }
+
+    @Test
+    public void testInvalidChunk() {
+        PolynomialSplineFunction ref = interpolator().interpolate(x, y);
+        MonotonicSplineAccumulator acc = interpolator().accumulator();
+        acc.add(x, y);
+        double[] bx = { 2.0, 4.0, 6.0 };
+        double[] by = { 0.1, 0.2, 0.3 };
+        // an invalid weight anywhere in a chunk rejects the whole chunk
+        for (double bad: new double[] { 0.0, -1.0, Double.NaN }) {
+            double[] bw = { 1.0, 1.0, bad };
+            try {
+                acc.add(bx, by, bw);
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+            DoubleBuffer xb = DoubleBuffer.wrap(bx);
+            DoubleBuffer yb = DoubleBuffer.wrap(by);
+            DoubleBuffer wb = DoubleBuffer.wrap(bw);
+            try {
+                acc.add(xb, yb, wb);
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+            assertEquals(0, xb.position());
+            assertEquals(0, yb.position());
+            assertEquals(0, wb.position());
+            DoubleBuffer xyw = DoubleBuffer.wrap(new double[] { 2.0, 0.1, 1.0, 4.0, 0.2, bad });
+            try {
+                acc.addInterleaved(xyw, true);
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+            assertEquals(0, xyw.position());
+        }
+        assertEquals(x.length, acc.size());
+        assertSameSpline(ref, acc.fit(), 0.0);
+    }
+
+    @Test
+    public void testBoundsRequired() {
+        thrown.expect(IllegalStateException.class);
+        new MonotonicSplineInterpolator().accumulator();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineAccumulatorTest.assertSameSpline;
+
+public class MonotonicSplineBinsTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    static double sum(double[] a) {
+        double s = 0.0;
+        for (double v: a) s += v;
+        return s;
+    }
+
+    @Test
+    public void testMerge() {
+        Random rng = new Random(61);
+        final int n = 2000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] w = new double[n];
+        for (int j = 0; j < n; ++j) {
+            // 50 distinct x values, in no particular order
+            x[j] = 0.1 * (double)rng.nextInt(50);
+            y[j] = Math.sqrt(x[j]) + 0.1 * rng.nextGaussian();
+            w[j] = 0.5 + rng.nextDouble();
+        }
+        MonotonicSplineBins bins = MonotonicSplineBins.merge(x, y, w);
+        assertEquals(50, bins.size());
+        assertEquals(0.0, bins.getMaxSpread(), 0.0);
+        assertEquals(sum(w), sum(bins.getW()), 1e-9);
+        double[] bx = bins.getX();
+        for (int k = 1; k < bx.length; ++k) assertTrue(bx[k - 1] < bx[k]);
+
+        // merging duplicates does not change the objective, only its constant term
+        MonotonicSplineConfig config = MonotonicSplineConfig.builder().setM(8).build();
+        MonotonicSplineFit raw = config.fit(x, y, w, null);
+        MonotonicSplineFit merged = config.fit(bins, null);
+        assertEquals(bins.getXMin(), merged.getXMin(), 0.0);
+        assertEquals(bins.getXMax(), merged.getXMax(), 0.0);
+        assertSameSpline(raw.toPolynomialSplineFunction(), merged.toPolynomialSplineFunction(), 1e-6);
+    }
+
+    @Test
+    public void testSignedZero() {
+        MonotonicSplineBins bins = MonotonicSplineBins.merge(
+            new double[] { 0.0, -0.0, 1.0 }, new double[] { 1.0, 2.0, 3.0 }, null);
+        assertEquals(2, bins.size());
+        assertEquals(0.0, bins.getX()[0], 0.0);
+        assertEquals(1.5, bins.getY()[0], 0.0);
+        assertEquals(2.0, bins.getW()[0], 0.0);
+    }
+
+    @Test
+    public void testBin() {
+        Random rng = new Random(67);
+        final int n = 100000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = 4.0 * rng.nextDouble();
+            y[j] = Math.sqrt(x[j]) + 0.1 * rng.nextGaussian();
+        }
+        MonotonicSplineBins bins = MonotonicSplineBins.bin(x, y, null, 400);
+        assertTrue(bins.size() <= 400);
+        assertEquals((double)n, sum(bins.getW()), 1e-6);
+        double width = (bins.getXMax() - bins.getXMin()) / 400.0;
+        assertTrue(bins.getMaxSpread() <= width);
+
+        MonotonicSplineConfig config = MonotonicSplineConfig.builder().setM(10).build();
+        MonotonicSplineFit raw = config.fit(x, y, null, null);
+        MonotonicSplineFit binned = config.fit(bins, null);
+        testMonotone(binned.toPolynomialSplineFunction());
+        assertSameSpline(raw.toPolynomialSplineFunction(), binned.toPolynomialSplineFunction(), 1e-3);
+
+        // the reduced set also feeds the ordinary weighted path
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setM(10);
+        interpolator.setBounds(bins.getXMin(), bins.getXMax());
+        interpolator.setW(bins.getW());
+        assertSameSpline(binned.toPolynomialSplineFunction(),
+            interpolator.interpolate(bins.getX(), bins.getY()), 1e-9);
+    }
+
+    @Test
+    public void testBadBins() {
+        thrown.expect(IllegalArgumentException.class);
+        MonotonicSplineBins.bin(new double[] { 1.0, 2.0 }, new double[] { 1.0, 2.0 }, null, 0);
+    }
+}
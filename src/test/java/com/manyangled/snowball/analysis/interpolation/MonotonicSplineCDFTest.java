@@ -0,0 +1,118 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+
+public class MonotonicSplineCDFTest {
+    static final NormalDistribution normal = new NormalDistribution();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    static double[] sample(int n, long seed) {
+        Random rng = new Random(seed);
+        double[] s = new double[n];
+        for (int j = 0; j < n; ++j) s[j] = rng.nextGaussian();
+        Arrays.sort(s);
+        return s;
+    }
+
+    // a fitted CDF rises from 0 to 1, and is close to the normal CDF
+    static void testCDF(MonotonicSplineFit fit, double eps) {
+        PolynomialSplineFunction s = fit.toPolynomialSplineFunction();
+        testMonotone(s);
+        double[] K = s.getKnots();
+        assertEquals(0.0, s.value(K[0]), 1e-6);
+        assertEquals(1.0, s.value(K[K.length - 1]), 1e-6);
+        for (double x = -2.0; x <= 2.0; x += 0.25) assertEquals(normal.cumulativeProbability(x), s.value(x), eps);
+    }
+
+    static MonotonicSplineConfig config() {
+        return MonotonicSplineConfig.builder().setM(10).setLambda(1e-4).build();
+    }
+
+    @Test
+    public void testCentroids() {
+        double[] s = sample(20000, 71);
+        // equal-count centroids, as a crude stand-in for a t-digest
+        final int k = 100;
+        double[] means = new double[k];
+        double[] counts = new double[k];
+        for (int j = 0; j < s.length; ++j) {
+            means[j * k / s.length] += s[j];
+            counts[j * k / s.length] += 1.0;
+        }
+        for (int i = 0; i < k; ++i) means[i] /= counts[i];
+        MonotonicSplineCDF cdf = MonotonicSplineCDF.fromCentroids(means, counts, s[0], s[s.length - 1]);
+        assertEquals(k, cdf.size());
+        assertEquals(0.005, cdf.getY()[0], 1e-12);
+        MonotonicSplineFit fit = config().fit(cdf, null);
+        assertEquals(s[0], fit.getXMin(), 0.0);
+        assertEquals(s[s.length - 1], fit.getXMax(), 0.0);
+        testCDF(fit, 0.02);
+    }
+
+    @Test
+    public void testSamples() {
+        double[] s = sample(2000, 73);
+        MonotonicSplineCDF cdf = MonotonicSplineCDF.fromSamples(s, null);
+        assertEquals(s.length, cdf.size());
+        MonotonicSplineFit fit = config().fit(cdf, null);
+        testCDF(fit, 0.03);
+        // the analytic start is moved onto s(lo) = 0 and s(hi) = 1, so no phase-1 solve is needed
+        assertEquals(0L, fit.getPhase1Nanos());
+    }
+
+    @Test
+    public void testHistogram() {
+        double[] s = sample(20000, 79);
+        final int k = 40;
+        double[] edges = new double[k + 1];
+        for (int j = 0; j <= k; ++j) edges[j] = -5.0 + 10.0 * (double)j / (double)k;
+        double[] counts = new double[k];
+        for (double v: s) counts[(int)((v + 5.0) * k / 10.0)] += 1.0;
+        MonotonicSplineCDF cdf = MonotonicSplineCDF.fromHistogram(edges, counts);
+        // the CDF at each edge is exact for the sample
+        double[] x = cdf.getX();
+        double[] y = cdf.getY();
+        for (int j = 0; j < x.length; ++j) {
+            int below = 0;
+            while ((below < s.length) && (s[below] < x[j])) ++below;
+            assertEquals((double)below / (double)s.length, y[j], 1e-12);
+        }
+        MonotonicSplineFit fit = config().fit(cdf, null);
+        assertEquals(-5.0, fit.getXMin(), 0.0);
+        assertEquals(5.0, fit.getXMax(), 0.0);
+        testCDF(fit, 0.02);
+    }
+
+    @Test
+    public void testUnsorted() {
+        thrown.expect(IllegalArgumentException.class);
+        MonotonicSplineCDF.fromCentroids(new double[] { 1.0, 0.0 }, new double[] { 1.0, 1.0 }, 0.0, 1.0);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineAccumulatorTest.assertSameSpline;
+
+public class MonotonicSplineConfigTest {
+    static double[][] data(Random rng, int n, double xmax) {
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = xmax * (double)j / (double)(n - 1);
+            y[j] = Math.sqrt(x[j]) + 0.1 * rng.nextGaussian();
+        }
+        return new double[][] { x, y };
+    }
+
+    @Test
+    public void testBuilder() {
+        MonotonicSplineConfig config = MonotonicSplineConfig.builder()
+            .setM(8)
+            .setLambda(0.5)
+            .setBounds(0.0, 2.0)
+            .addEqualityConstraint(1.0, 1.0)
+            .build();
+        assertEquals(8, config.getM());
+        assertEquals(0.5, config.getLambda(), 0.0);
+        assertEquals(0.0, config.getXMin(), 0.0);
+        assertEquals(2.0, config.getXMax(), 0.0);
+        assertTrue(config.hasBounds());
+        assertFalse(MonotonicSplineConfig.builder().build().hasBounds());
+        double[][] d = data(new Random(3), 100, 2.0);
+        PolynomialSplineFunction s = config.interpolate(d[0], d[1]);
+        testMonotone(s);
+        assertThat(s.value(1.0), closeTo(1.0, 1e-6));
+        // a copy of the configuration fits the same spline
+        assertSameSpline(s, config.toBuilder().build().interpolate(d[0], d[1]), 1e-12);
+    }
+
+    @Test
+    public void testNoStaleState() {
+        // a fit does not keep the bounds or weights it derived from its data
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        Random rng = new Random(5);
+        double[][] d1 = data(rng, 50, 1.0);
+        double[][] d2 = data(rng, 80, 10.0);
+        PolynomialSplineFunction s1 = interpolator.interpolate(d1[0], d1[1]);
+        PolynomialSplineFunction s2 = interpolator.interpolate(d2[0], d2[1]);
+        double[] K1 = s1.getKnots();
+        double[] K2 = s2.getKnots();
+        assertEquals(1.0, K1[K1.length - 1], 1e-12);
+        assertEquals(10.0, K2[K2.length - 1], 1e-12);
+        testMonotone(s2);
+    }
+
+    @Test
+    public void testSnapshot() {
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setBounds(0.0, 1.0);
+        MonotonicSplineConfig config = interpolator.config();
+        interpolator.setM(9);
+        interpolator.setBounds(0.0, 2.0);
+        assertEquals(MonotonicSplineInterpolator.M_DEFAULT, config.getM());
+        assertEquals(1.0, config.getXMax(), 0.0);
+    }
+
+    @Test
+    public void testConcurrentFits() throws Exception {
+        final MonotonicSplineConfig config = MonotonicSplineConfig.builder()
+            .setM(10)
+            .addGreaterThanConstraint(0.0, 0.0)
+            .build();
+        Random rng = new Random(7);
+        final int nCurves = 16;
+        final double[][][] data = new double[nCurves][][];
+        PolynomialSplineFunction[] ref = new PolynomialSplineFunction[nCurves];
+        for (int k = 0; k < nCurves; ++k) {
+            data[k] = data(rng, 50 + 10 * k, 1.0 + k);
+            ref[k] = config.interpolate(data[k][0], data[k][1]);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            ArrayList<Future<PolynomialSplineFunction>> results = new ArrayList<Future<PolynomialSplineFunction>>();
+            for (int k = 0; k < nCurves; ++k) {
+                final double[][] d = data[k];
+                results.add(pool.submit(new Callable<PolynomialSplineFunction>() {
+                    public PolynomialSplineFunction call() {
+                        return config.interpolate(d[0], d[1]);
+                    }
+                }));
+            }
+            for (int k = 0; k < nCurves; ++k) assertSameSpline(ref[k], results.get(k).get(), 1e-12);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterpolateAll() {
+        MonotonicSplineConfig config = MonotonicSplineConfig.builder().setM(6).build();
+        Random rng = new Random(11);
+        final int nCurves = 30;
+        double[][] xs = new double[nCurves][];
+        double[][] ys = new double[nCurves][];
+        for (int k = 0; k < nCurves; ++k) {
+            double[][] d = data(rng, 20 + k, 1.0 + k);
+            xs[k] = d[0];
+            ys[k] = d[1];
+        }
+        // too few data points: this curve fails without aborting the batch
+        xs[7] = new double[] { 1.0, 2.0, 3.0 };
+        ys[7] = new double[] { 1.0, 2.0, 3.0 };
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            MonotonicSplineBatch batch = config.interpolateAll(xs, ys, null, pool);
+            assertEquals(nCurves, batch.size());
+            assertEquals(1, batch.failures());
+            assertFalse(batch.succeeded(7));
+            assertTrue(batch.getError(7) instanceof IllegalArgumentException);
+            assertEquals(null, batch.getSpline(7));
+            for (int k = 0; k < nCurves; ++k) {
+                if (k == 7) continue;
+                assertTrue(batch.succeeded(k));
+                assertSameSpline(config.interpolate(xs[k], ys[k]), batch.getSpline(k), 1e-12);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, config.interpolateAll(xs, ys).failures());
+    }
+
+    @Test
+    public void testRefine() {
+        Random rng = new Random(53);
+        double[] tau = new double[10];
+        for (int k = 0; k < tau.length; ++k) tau[k] = rng.nextDouble();
+        MonotonicSplineFit coarse = new MonotonicSplineFit(tau, 1.0, 3.0);
+        MonotonicSplineFit fine = new MonotonicSplineFit(MSISupport.refine(tau), 1.0, 3.0);
+        assertEquals(2 * coarse.getM(), fine.getM());
+        assertSameSpline(coarse.toPolynomialSplineFunction(), fine.toPolynomialSplineFunction(), 1e-12);
+    }
+
+    @Test
+    public void testFitAdaptive() {
+        Random rng = new Random(59);
+        final int n = 400;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = 4.0 * (double)j / (double)(n - 1);
+            // a sharp step needs many more intervals than a straight line
+            y[j] = 1.0 / (1.0 + Math.exp(-12.0 * (x[j] - 2.0))) + 0.02 * rng.nextGaussian();
+            z[j] = 0.25 * x[j] + 0.02 * rng.nextGaussian();
+        }
+        MonotonicSplineConfig config = MonotonicSplineConfig.builder().setM(5).setLambda(1e-4).build();
+        MonotonicSplineFit step = config.fitAdaptive(x, y, null, 80);
+        assertTrue(step.getM() >= 20);
+        assertTrue(step.getM() <= 80);
+        testMonotone(step.toPolynomialSplineFunction());
+        assertEquals(5, config.fitAdaptive(x, z, null, 80).getM());
+        // with mMax = m there is nothing to choose
+        MonotonicSplineFit fixed = config.fitAdaptive(x, y, null, 5);
+        assertSameSpline(config.fit(x, y, null, null).toPolynomialSplineFunction(), fixed.toPolynomialSplineFunction(), 1e-9);
+    }
+
+    @Test
+    public void testFitAdaptiveInfiniteBIC() {
+        Random rng = new Random(61);
+        final int n = 100;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = (double)j;
+            // residuals this large overflow the sum of squares, so every BIC is infinite
+            y[j] = 1e160 * ((double)j + rng.nextGaussian());
+        }
+        MonotonicSplineConfig config = MonotonicSplineConfig.builder().setM(5).build();
+        MonotonicSplineFit fit = config.fitAdaptive(x, y, null, 40);
+        assertEquals(5, fit.getM());
+    }
+}
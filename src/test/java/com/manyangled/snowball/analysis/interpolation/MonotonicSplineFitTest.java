@@ -0,0 +1,169 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertSame;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import com.manyangled.gibbous.optim.convex.ConvergenceEpsilon;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineAccumulatorTest.assertSameSpline;
+
+public class MonotonicSplineFitTest {
+    static double[][] data(Random rng, int n) {
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = 10.0 * rng.nextDouble();
+            y[j] = Math.tanh(x[j] - 5.0) + 0.2 * rng.nextGaussian();
+        }
+        return new double[][] { x, y };
+    }
+
+    static MonotonicSplineInterpolator interpolator() {
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setM(12);
+        interpolator.setBounds(0.0, 10.0);
+        return interpolator;
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testFit() {
+        double[][] d = data(new Random(3), 300);
+        MonotonicSplineInterpolator interpolator = interpolator();
+        MonotonicSplineFit fit = interpolator.fit(d[0], d[1]);
+        assertEquals(12, fit.getM());
+        assertEquals(0.0, fit.getXMin(), 0.0);
+        assertEquals(10.0, fit.getXMax(), 0.0);
+        assertEquals(15, fit.getCoefficients().length);
+        PolynomialSplineFunction s = fit.toPolynomialSplineFunction();
+        testMonotone(s);
+        assertSameSpline(interpolator.interpolate(d[0], d[1]), s, 1e-12);
+        // a fit can be rebuilt from its coefficients
+        MonotonicSplineFit copy = new MonotonicSplineFit(fit.getCoefficients(), 0.0, 10.0);
+        assertSameSpline(s, copy.toPolynomialSplineFunction(), 0.0);
+    }
+
+    static void testWarmStart(MonotonicSplineInterpolator interpolator, double eps) {
+        Random rng = new Random(5);
+        double[][] d = data(rng, 500);
+        MonotonicSplineFit fit = interpolator.fit(d[0], d[1]);
+        for (int k = 0; k < 5; ++k) {
+            // refit after a small change to the data
+            for (int j = 0; j < d[1].length; j += 10) d[1][j] += 0.05 * rng.nextGaussian();
+            MonotonicSplineFit cold = interpolator.fit(d[0], d[1]);
+            MonotonicSplineFit warm = interpolator.fit(d[0], d[1], fit);
+            testMonotone(warm.toPolynomialSplineFunction());
+            assertSameSpline(cold.toPolynomialSplineFunction(), warm.toPolynomialSplineFunction(), eps);
+            fit = warm;
+        }
+    }
+
+    @Test
+    public void testWarmStartBarrier() {
+        testWarmStart(interpolator(), 1e-4);
+    }
+
+    @Test
+    public void testWarmStartActiveSet() {
+        MonotonicSplineInterpolator interpolator = interpolator();
+        interpolator.addInterpolationOptions(new ActiveSetEngine());
+        interpolator.addEqualityConstraint(5.0, 0.0);
+        testWarmStart(interpolator, 1e-9);
+    }
+
+    @Test
+    public void testWarmStartLooseEpsilon() {
+        double[][] d = data(new Random(9), 500);
+        MonotonicSplineInterpolator interpolator = interpolator();
+        // loose enough that the barrier method would stop before centering at the warm start's gap
+        interpolator.addInterpolationOptions(new ConvergenceEpsilon(1e-3));
+        MonotonicSplineFit prev = interpolator.fit(d[0], d[1]);
+        for (int j = 0; j < d[1].length; ++j) d[1][j] += 1.0;
+        MonotonicSplineFit cold = interpolator.fit(d[0], d[1]);
+        MonotonicSplineFit warm = interpolator.fit(d[0], d[1], prev);
+        testMonotone(warm.toPolynomialSplineFunction());
+        // the refit follows the shifted data, rather than staying near the previous fit
+        assertEquals(prev.toFunction().value(5.0) + 1.0, warm.toFunction().value(5.0), 0.05);
+        assertSameSpline(cold.toPolynomialSplineFunction(), warm.toPolynomialSplineFunction(), 0.05);
+    }
+
+    @Test
+    public void testIncompatibleWarmStart() {
+        double[][] d = data(new Random(7), 200);
+        MonotonicSplineInterpolator interpolator = interpolator();
+        // a previous fit with different bounds cannot warm-start, and is ignored
+        MonotonicSplineFit other = new MonotonicSplineFit(new double[15], -1.0, 1.0);
+        MonotonicSplineFit fit = interpolator.fit(d[0], d[1], other);
+        assertArrayEquals(interpolator.fit(d[0], d[1]).getCoefficients(), fit.getCoefficients(), 0.0);
+    }
+
+    @Test
+    public void testCoefficientLength() {
+        thrown.expect(IllegalArgumentException.class);
+        new MonotonicSplineFit(new double[6], 0.0, 1.0);
+    }
+
+    @Test
+    public void testDiagnostics() {
+        double[][] d = data(new Random(7), 300);
+        MonotonicSplineInterpolator interpolator = interpolator();
+        MonotonicSplineFit fit = interpolator.fit(d[0], d[1]);
+        assertTrue(fit.getIterations() > 0);
+        // the analytic starting point needs no phase-1 solve
+        assertEquals(0L, fit.getPhase1Nanos());
+        assertEquals(1.2, fit.getAlpha(), 1e-15);
+        PolynomialSplineFunction s = fit.toPolynomialSplineFunction();
+        assertSame(s, fit.toPolynomialSplineFunction());
+        assertArrayEquals(s.getKnots(), fit.getKnots(), 0.0);
+        assertEquals(fit.getObjective(), interpolator.fit(d[0], d[1]).getObjective(), 0.0);
+
+        // the analytic starting point is moved onto an equality constraint, without a phase-1 solve
+        interpolator.addEqualityConstraint(5.0, 0.0);
+        MonotonicSplineFit constrained = interpolator.fit(d[0], d[1]);
+        assertEquals(0L, constrained.getPhase1Nanos());
+        assertTrue(constrained.getIterations() > 0);
+        // a constraint can only increase the minimum
+        assertTrue(constrained.getObjective() >= fit.getObjective());
+
+        interpolator.addInterpolationOptions(new ActiveSetEngine());
+        MonotonicSplineFit as = interpolator.fit(d[0], d[1]);
+        assertTrue(as.getIterations() > 0);
+        assertEquals(constrained.getObjective(), as.getObjective(), 1e-6 * Math.abs(constrained.getObjective()));
+
+        // an inequality constraint that excludes the analytic starting point requires phase 1
+        MonotonicSplineInterpolator excluded = interpolator();
+        excluded.addLessThanConstraint(8.0, 0.5);
+        assertTrue(excluded.fit(d[0], d[1]).getPhase1Nanos() > 0L);
+
+        MonotonicSplineFit copy = new MonotonicSplineFit(fit.getCoefficients(), 0.0, 10.0);
+        assertTrue(Double.isNaN(copy.getObjective()));
+        assertEquals(-1, copy.getIterations());
+        assertEquals(-1L, copy.getPhase1Nanos());
+    }
+}
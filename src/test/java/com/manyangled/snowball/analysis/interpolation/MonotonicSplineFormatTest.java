@@ -0,0 +1,113 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+public class MonotonicSplineFormatTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static void testView(MonotonicSplineView v, MonotonicSplineFit fit) {
+        assertEquals(fit.getM(), v.getM());
+        assertEquals(fit.getXMin(), v.getXMin(), 0.0);
+        assertEquals(fit.getXMax(), v.getXMax(), 0.0);
+        assertArrayEquals(fit.getCoefficients(), v.toFit().getCoefficients(), 0.0);
+        PolynomialSplineFunction ps = fit.toPolynomialSplineFunction();
+        for (double k: ps.getKnots()) assertEquals(ps.value(k), v.value(k), 0.0);
+        Random rng = new Random(3);
+        for (int k = 0; k < 1000; ++k) {
+            double x = fit.getXMin() + (fit.getXMax() - fit.getXMin()) * rng.nextDouble();
+            assertEquals(ps.value(x), v.value(x), 0.0);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        MonotonicSplineFit fit = MonotonicSplineFunctionTest.fit(9, -1.5, 2.5);
+        byte[] bytes = MonotonicSplineFormat.toBytes(fit);
+        assertEquals(MonotonicSplineFormat.recordBytes(9), bytes.length);
+        assertEquals(32 + 8 * 12, bytes.length);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        MonotonicSplineFit f2 = MonotonicSplineFormat.read(buf);
+        assertEquals(bytes.length, buf.position());
+        assertArrayEquals(fit.getCoefficients(), f2.getCoefficients(), 0.0);
+        assertEquals(fit.getXMin(), f2.getXMin(), 0.0);
+        assertEquals(fit.getXMax(), f2.getXMax(), 0.0);
+        testView(MonotonicSplineFormat.view(ByteBuffer.wrap(bytes)), fit);
+    }
+
+    @Test
+    public void testConcatenated() throws Exception {
+        MonotonicSplineFit[] fits = new MonotonicSplineFit[] {
+            MonotonicSplineFunctionTest.fit(5, 0.0, 1.0),
+            MonotonicSplineFunctionTest.fit(17, -3.0, 4.0),
+            MonotonicSplineFunctionTest.fit(8, 10.0, 20.0)
+        };
+        int size = 0;
+        for (MonotonicSplineFit f: fits) size += MonotonicSplineFormat.recordBytes(f.getM());
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (MonotonicSplineFit f: fits) MonotonicSplineFormat.write(f, buf);
+        buf.flip();
+        List<MonotonicSplineView> vs = MonotonicSplineFormat.views(buf.duplicate());
+        assertEquals(fits.length, vs.size());
+        for (int j = 0; j < fits.length; ++j) testView(vs.get(j), fits[j]);
+
+        File file = tmp.newFile("fits.bin");
+        Files.write(file.toPath(), buf.array());
+        vs = MonotonicSplineFormat.map(file.toPath());
+        assertEquals(fits.length, vs.size());
+        for (int j = 0; j < fits.length; ++j) testView(vs.get(j), fits[j]);
+    }
+
+    @Test
+    public void testBadMagic() {
+        byte[] bytes = MonotonicSplineFormat.toBytes(MonotonicSplineFunctionTest.fit(5, 0.0, 1.0));
+        bytes[0] ^= 1;
+        thrown.expect(IllegalArgumentException.class);
+        MonotonicSplineFormat.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testBadVersion() {
+        byte[] bytes = MonotonicSplineFormat.toBytes(MonotonicSplineFunctionTest.fit(5, 0.0, 1.0));
+        bytes[4] = 2;
+        thrown.expect(IllegalArgumentException.class);
+        MonotonicSplineFormat.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] bytes = MonotonicSplineFormat.toBytes(MonotonicSplineFunctionTest.fit(5, 0.0, 1.0));
+        thrown.expect(IllegalArgumentException.class);
+        MonotonicSplineFormat.read(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+    }
+}
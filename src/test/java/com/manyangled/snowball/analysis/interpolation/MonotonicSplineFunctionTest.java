@@ -0,0 +1,146 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.apache.commons.math3.analysis.differentiation.DerivativeStructure;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+public class MonotonicSplineFunctionTest {
+    static MonotonicSplineFit fit(int m, double xmin, double xmax) {
+        Random rng = new Random(m);
+        final int n = 200;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = xmin + (xmax - xmin) * rng.nextDouble();
+            y[j] = Math.atan(x[j]) + 0.1 * rng.nextGaussian();
+        }
+        return MonotonicSplineConfig.builder().setM(m).setBounds(xmin, xmax).build().fit(x, y, null, null);
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testValues() {
+        MonotonicSplineFit fit = fit(13, -2.5, 3.7);
+        PolynomialSplineFunction ps = fit.toPolynomialSplineFunction();
+        PolynomialSplineFunction dps = ps.polynomialSplineDerivative();
+        MonotonicSplineFunction f = fit.toFunction();
+        assertEquals(13, f.getM());
+        double[] K = ps.getKnots();
+        double[] fK = f.getKnots();
+        for (int j = 0; j < K.length; ++j) {
+            assertEquals(K[j], fK[j], 0.0);
+            // knots are where the interval search is most sensitive to rounding
+            assertEquals(ps.value(K[j]), f.value(K[j]), 0.0);
+            assertEquals(dps.value(K[j]), f.derivative(K[j]), 0.0);
+        }
+        Random rng = new Random(3);
+        for (int k = 0; k < 10000; ++k) {
+            double x = -2.5 + 6.2 * rng.nextDouble();
+            assertEquals(ps.value(x), f.value(x), 0.0);
+            assertEquals(dps.value(x), f.derivative(x), 0.0);
+        }
+    }
+
+    @Test
+    public void testDerivativeStructure() {
+        MonotonicSplineFit fit = fit(8, 0.0, 1.0);
+        PolynomialSplineFunction ps = fit.toPolynomialSplineFunction();
+        PolynomialSplineFunction dps = ps.polynomialSplineDerivative();
+        PolynomialSplineFunction d2ps = dps.polynomialSplineDerivative();
+        MonotonicSplineFunction f = fit.toFunction();
+        for (double x = 0.0; x <= 1.0; x += 0.01) {
+            DerivativeStructure v = f.value(new DerivativeStructure(1, 2, 0, x));
+            assertEquals(ps.value(x), v.getValue(), 1e-14);
+            assertEquals(dps.value(x), v.getPartialDerivative(1), 1e-12);
+            assertEquals(d2ps.value(x), v.getPartialDerivative(2), 1e-10);
+        }
+    }
+
+    @Test
+    public void testDomain() {
+        MonotonicSplineFunction f = fit(5, 0.0, 1.0).toFunction();
+        assertTrue(f.isValidPoint(0.0));
+        assertTrue(f.isValidPoint(1.0));
+        assertFalse(f.isValidPoint(1.0 + 1e-9));
+        thrown.expect(OutOfRangeException.class);
+        f.value(-1e-9);
+    }
+
+    @Test
+    public void testBulk() {
+        MonotonicSplineFunction f = fit(11, 1.0, 2.0).toFunction();
+        Random rng = new Random(5);
+        double[] xs = new double[5000];
+        for (int k = 0; k < xs.length; ++k) xs[k] = 1.0 + rng.nextDouble();
+        xs[0] = 1.0;
+        xs[1] = 2.0;
+        double[] out = new double[xs.length];
+        f.value(xs, out);
+        for (int k = 0; k < xs.length; ++k) assertEquals(f.value(xs[k]), out[k], 0.0);
+        double[] sorted = xs.clone();
+        Arrays.sort(sorted);
+        f.valueSorted(sorted, out);
+        for (int k = 0; k < xs.length; ++k) assertEquals(f.value(sorted[k]), out[k], 0.0);
+        // the knots themselves
+        double[] K = f.getKnots();
+        double[] outK = new double[K.length];
+        f.valueSorted(K, outK);
+        for (int k = 0; k < K.length; ++k) assertEquals(f.value(K[k]), outK[k], 0.0);
+    }
+
+    @Test
+    public void testUnsorted() {
+        MonotonicSplineFunction f = fit(5, 0.0, 1.0).toFunction();
+        thrown.expect(IllegalArgumentException.class);
+        f.valueSorted(new double[] { 0.1, 0.5, 0.4, 0.9 }, new double[4]);
+    }
+
+    @Test
+    public void testInverse() {
+        MonotonicSplineFunction f = fit(11, 1.0, 2.0).toFunction();
+        assertEquals(f.value(1.0), f.getYMin(), 0.0);
+        assertEquals(f.value(2.0), f.getYMax(), 1e-15);
+        Random rng = new Random(7);
+        for (int k = 0; k < 1000; ++k) {
+            double y = f.getYMin() + (f.getYMax() - f.getYMin()) * rng.nextDouble();
+            double x = f.inverse(y);
+            assertTrue(f.isValidPoint(x));
+            assertEquals(y, f.value(x), 1e-12);
+        }
+        for (double k : f.getKnots()) assertEquals(f.value(k), f.value(f.inverse(f.value(k))), 1e-12);
+        assertEquals(1.0, f.inverse(f.getYMin()), 0.0);
+    }
+
+    @Test
+    public void testInverseRange() {
+        MonotonicSplineFunction f = fit(5, 0.0, 1.0).toFunction();
+        thrown.expect(OutOfRangeException.class);
+        f.inverse(f.getYMax() + 1e-6);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineAccumulatorTest.assertSameSpline;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineConfigTest.data;
+
+public class MonotonicSplineLambdaSelectionTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    static MonotonicSplineConfig config() {
+        return MonotonicSplineConfig.builder().setM(12).setBounds(0.0, 4.0).build();
+    }
+
+    @Test
+    public void testLambdaGrid() {
+        double[] grid = MonotonicSplineConfig.lambdaGrid(1e-3, 1e3, 7);
+        assertEquals(7, grid.length);
+        for (int j = 0; j < grid.length; ++j) assertEquals(Math.pow(10.0, j - 3), grid[j], 1e-12 * grid[j]);
+        assertEquals(1e3, grid[6], 0.0);
+        assertEquals(1, MonotonicSplineConfig.lambdaGrid(2.0, 2.0, 1).length);
+    }
+
+    @Test
+    public void testGCV() {
+        double[][] d = data(new Random(31), 200, 4.0);
+        MonotonicSplineConfig config = config();
+        double[] grid = MonotonicSplineConfig.lambdaGrid(1e-4, 1e2, 13);
+        // candidates may be given in any order
+        double[] shuffled = grid.clone();
+        for (int j = 0; j < shuffled.length / 2; ++j) {
+            double t = shuffled[j];
+            shuffled[j] = shuffled[shuffled.length - 1 - j];
+            shuffled[shuffled.length - 1 - j] = t;
+        }
+        MonotonicSplineLambdaSelection sel = config.selectLambda(d[0], d[1], null, shuffled);
+        assertTrue(Arrays.equals(grid, sel.getLambdas()));
+        double[] scores = sel.getScores();
+        int best = Arrays.binarySearch(grid, sel.getLambda());
+        assertTrue(best >= 0);
+        for (double s: scores) {
+            assertTrue(Double.isFinite(s) && (s > 0.0));
+            assertTrue(scores[best] <= s);
+        }
+        // the noise has variance 0.01, which GCV estimates
+        assertEquals(0.01, scores[best], 0.005);
+        // heavy smoothing of sqrt(x) is a worse fit
+        assertTrue(scores[best] < scores[scores.length - 1]);
+        testMonotone(sel.getFit().toPolynomialSplineFunction());
+
+        // the warm-started path reaches the same fit as a direct fit with the chosen lambda
+        MonotonicSplineFit direct = config.toBuilder().setLambda(sel.getLambda()).build().fit(d[0], d[1], null, null);
+        assertSameSpline(direct.toPolynomialSplineFunction(), sel.getFit().toPolynomialSplineFunction(), 1e-5);
+    }
+
+    @Test
+    public void testSketch() {
+        double[][] d = data(new Random(37), 150, 4.0);
+        MonotonicSplineConfig config = config();
+        double[] grid = MonotonicSplineConfig.lambdaGrid(1e-3, 1e1, 5);
+        MonotonicSplineSketch sketch = config.sketch();
+        sketch.add(d[0], d[1]);
+        MonotonicSplineLambdaSelection s1 = config.selectLambda(d[0], d[1], null, grid);
+        MonotonicSplineLambdaSelection s2 = config.selectLambda(sketch, grid);
+        assertEquals(s1.getLambda(), s2.getLambda(), 0.0);
+        for (int j = 0; j < grid.length; ++j) assertEquals(s1.getScores()[j], s2.getScores()[j], 1e-12);
+    }
+
+    @Test
+    public void testCrossValidation() {
+        double[][] d = data(new Random(41), 200, 4.0);
+        MonotonicSplineConfig config = config();
+        double[] grid = MonotonicSplineConfig.lambdaGrid(1e-4, 1e2, 7);
+        MonotonicSplineLambdaSelection sel = config.selectLambda(d[0], d[1], null, grid, 5);
+        double[] scores = sel.getScores();
+        for (double s: scores) assertTrue(Double.isFinite(s) && (s > 0.0));
+        int best = Arrays.binarySearch(grid, sel.getLambda());
+        for (double s: scores) assertTrue(scores[best] <= s);
+        // held-out error is at least the noise variance, and not much more for a good lambda
+        assertEquals(0.01, scores[best], 0.005);
+        testMonotone(sel.getFit().toPolynomialSplineFunction());
+        MonotonicSplineFit direct = config.toBuilder().setLambda(sel.getLambda()).build().fit(d[0], d[1], null, null);
+        assertSameSpline(direct.toPolynomialSplineFunction(), sel.getFit().toPolynomialSplineFunction(), 1e-5);
+    }
+
+    @Test
+    public void testInterpolator() {
+        double[][] d = data(new Random(43), 100, 4.0);
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setM(12);
+        interpolator.setBounds(0.0, 4.0);
+        double[] grid = MonotonicSplineConfig.lambdaGrid(1e-3, 1e1, 5);
+        MonotonicSplineLambdaSelection sel = interpolator.selectLambda(d[0], d[1], grid);
+        assertEquals(config().selectLambda(d[0], d[1], null, grid).getLambda(), sel.getLambda(), 0.0);
+    }
+
+    @Test
+    public void testFolds() {
+        double[][] d = data(new Random(47), 100, 4.0);
+        thrown.expect(IllegalArgumentException.class);
+        config().selectLambda(d[0], d[1], null, new double[] { 1.0 }, 1);
+    }
+}
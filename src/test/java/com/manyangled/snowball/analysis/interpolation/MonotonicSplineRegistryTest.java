@@ -0,0 +1,156 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+public class MonotonicSplineRegistryTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static final long[] IDS = new long[] { 42L, -7L, 1000000007L, 3L, 0L };
+
+    static MonotonicSplineFit[] fits() {
+        MonotonicSplineFit[] fits = new MonotonicSplineFit[IDS.length];
+        for (int k = 0; k < fits.length; ++k)
+            fits[k] = MonotonicSplineFunctionTest.fit(5 + 3 * k, -1.0 - k, 2.0 + k);
+        return fits;
+    }
+
+    static void testRegistry(MonotonicSplineRegistry reg, MonotonicSplineFit[] fits) {
+        assertEquals(IDS.length, reg.size());
+        for (int k = 1; k < reg.size(); ++k) assertTrue(reg.getId(k - 1) < reg.getId(k));
+        assertFalse(reg.contains(1L));
+        assertEquals(-1, reg.indexOf(Long.MAX_VALUE));
+        Random rng = new Random(5);
+        for (int j = 0; j < IDS.length; ++j) {
+            assertTrue(reg.contains(IDS[j]));
+            assertEquals(IDS[j], reg.getId(reg.indexOf(IDS[j])));
+            PolynomialSplineFunction ps = fits[j].toPolynomialSplineFunction();
+            for (double k: ps.getKnots()) assertEquals(ps.value(k), reg.value(IDS[j], k), 0.0);
+            for (int k = 0; k < 1000; ++k) {
+                double x = fits[j].getXMin() + (fits[j].getXMax() - fits[j].getXMin()) * rng.nextDouble();
+                assertEquals(ps.value(x), reg.value(IDS[j], x), 0.0);
+            }
+            assertEquals(fits[j].getM(), reg.view(IDS[j]).getM());
+        }
+    }
+
+    @Test
+    public void testOffHeap() {
+        MonotonicSplineFit[] fits = fits();
+        testRegistry(MonotonicSplineRegistry.of(IDS, fits), fits);
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        MonotonicSplineFit[] fits = fits();
+        Path path = tmp.newFile("registry.bin").toPath();
+        MonotonicSplineRegistry.write(path, IDS, fits);
+        testRegistry(MonotonicSplineRegistry.open(path), fits);
+    }
+
+    @Test
+    public void testNoAllocation() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean)mx;
+        if (!tmx.isThreadAllocatedMemorySupported() || !tmx.isThreadAllocatedMemoryEnabled()) return;
+        MonotonicSplineRegistry reg = MonotonicSplineRegistry.of(IDS, fits());
+        final long tid = Thread.currentThread().getId();
+        double s = 0.0;
+        for (int k = 0; k < 100000; ++k) s += reg.value(IDS[k % IDS.length], 0.5);
+        long before = tmx.getThreadAllocatedBytes(tid);
+        for (int k = 0; k < 100000; ++k) s += reg.value(IDS[k % IDS.length], 0.5);
+        long after = tmx.getThreadAllocatedBytes(tid);
+        assertTrue(s > Double.NEGATIVE_INFINITY);
+        // allow for incidental allocation by the runtime, but not one object per call
+        assertTrue(after - before < 10000);
+    }
+
+    @Test
+    public void testMissingId() {
+        MonotonicSplineRegistry reg = MonotonicSplineRegistry.of(IDS, fits());
+        thrown.expect(IllegalArgumentException.class);
+        reg.value(1L, 0.5);
+    }
+
+    @Test
+    public void testDuplicateId() {
+        MonotonicSplineFit[] fits = fits();
+        thrown.expect(IllegalArgumentException.class);
+        MonotonicSplineRegistry.of(new long[] { 1L, 2L, 3L, 2L, 5L }, fits);
+    }
+
+    // write a registry file, and overwrite the first record's field at offset off with v
+    Path corrupt(int off, long v, boolean isInt) throws Exception {
+        Path path = tmp.newFile().toPath();
+        MonotonicSplineRegistry.write(path, IDS, fits());
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        final int p = MonotonicSplineRegistry.HEADER_BYTES + 8 * IDS.length + off;
+        if (isInt) b.putInt(p, (int)v); else b.putDouble(p, Double.longBitsToDouble(v));
+        Files.write(path, b.array());
+        return path;
+    }
+
+    @Test
+    public void testRecordTooLarge() throws Exception {
+        // opening reads only the header, and the other records remain usable
+        MonotonicSplineRegistry reg = MonotonicSplineRegistry.open(corrupt(MonotonicSplineFormat.M_OFFSET, 1000, true));
+        assertEquals(fits()[0].toPolynomialSplineFunction().value(0.5), reg.value(42L, 0.5), 0.0);
+        thrown.expect(IllegalArgumentException.class);
+        reg.value(-7L, 0.5);
+    }
+
+    @Test
+    public void testEmptyDomain() throws Exception {
+        Path path = corrupt(MonotonicSplineFormat.XMAX_OFFSET, Double.doubleToLongBits(-2.0), false);
+        MonotonicSplineRegistry reg = MonotonicSplineRegistry.open(path);
+        thrown.expect(IllegalArgumentException.class);
+        reg.verify();
+    }
+
+    @Test
+    public void testBadMagic() throws Exception {
+        MonotonicSplineRegistry reg = MonotonicSplineRegistry.open(corrupt(0, 0, true));
+        thrown.expect(IllegalArgumentException.class);
+        reg.view(-7L);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        Path path = tmp.newFile().toPath();
+        MonotonicSplineRegistry.write(path, IDS, fits());
+        MonotonicSplineRegistry.open(path).verify();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTest.testMonotone;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineAccumulatorTest.assertSameSpline;
+
+public class MonotonicSplineSketchTest {
+    static final double[] x = { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0 };
+    static final double[] y = { 0.0, 0.2, 0.1, 0.4, 0.5, 0.6, 0.9, 0.8, 1.0 };
+
+    static MonotonicSplineSketch roundTrip(MonotonicSplineSketch sketch) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(sketch);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (MonotonicSplineSketch)in.readObject();
+        }
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testMerge() throws Exception {
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setBounds(1.0, 9.0);
+        interpolator.addEqualityConstraint(1.0, 0.0);
+        interpolator.addEqualityConstraint(9.0, 1.0);
+        PolynomialSplineFunction ref = interpolator.interpolate(x, y);
+
+        // three "partitions" of the data, each sketched and serialized separately
+        MonotonicSplineSketch s1 = interpolator.sketch();
+        MonotonicSplineSketch s2 = interpolator.sketch();
+        MonotonicSplineSketch s3 = interpolator.sketch();
+        for (int j = 0; j < x.length; ++j) {
+            if (j % 3 == 0) s1.add(x[j], y[j]);
+            else if (j % 3 == 1) s2.add(x[j], y[j], 1.0);
+            else s3.add(new double[] { x[j] }, new double[] { y[j] });
+        }
+        MonotonicSplineSketch sketch = roundTrip(s1).merge(roundTrip(s2)).merge(roundTrip(s3));
+        assertEquals(x.length, sketch.size());
+
+        PolynomialSplineFunction s = interpolator.interpolate(sketch);
+        testMonotone(s);
+        assertSameSpline(ref, s, 1e-6);
+    }
+
+    @Test
+    public void testInvalidChunk() {
+        MonotonicSplineSketch sketch = new MonotonicSplineSketch(5, 1.0, 9.0).add(x, y);
+        MonotonicSplineSketch ref = new MonotonicSplineSketch(5, 1.0, 9.0).add(x, y);
+        // a chunk with any invalid weight, including NaN, is rejected without adding any of it
+        for (double bad: new double[] { 0.0, -1.0, Double.NaN }) {
+            try {
+                sketch.add(new double[] { 2.0, 3.0 }, new double[] { 0.5, 0.5 }, new double[] { 1.0, bad });
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        assertEquals(x.length, sketch.size());
+        assertSameSpline(new MonotonicSplineInterpolator().interpolate(ref),
+            new MonotonicSplineInterpolator().interpolate(sketch), 0.0);
+    }
+
+    @Test
+    public void testIncompatibleMerge() {
+        thrown.expect(IllegalArgumentException.class);
+        new MonotonicSplineSketch(5, 0.0, 1.0).merge(new MonotonicSplineSketch(6, 0.0, 1.0));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+Copyright 2018 Erik Erlandson
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.manyangled.snowball.analysis.interpolation;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTable.Interpolation.HERMITE;
+import static com.manyangled.snowball.analysis.interpolation.MonotonicSplineTable.Precision.FLOAT;
+
+public class MonotonicSplineTableTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    static void testTable(MonotonicSplineTable table, PolynomialSplineFunction ps) {
+        Random rng = new Random(11);
+        double err = 0.0;
+        for (int k = 0; k < 10000; ++k) {
+            double x = table.getXMin() + (table.getXMax() - table.getXMin()) * rng.nextDouble();
+            err = Math.max(err, Math.abs(table.value(x) - ps.value(x)));
+        }
+        assertTrue(err <= table.getErrorBound());
+        assertEquals(ps.value(table.getXMin()), table.value(table.getXMin()), table.getErrorBound());
+        assertEquals(ps.value(table.getXMax()), table.value(table.getXMax()), table.getErrorBound());
+        // monotone, across and within cells
+        final int n = 100000;
+        double v = table.value(table.getXMin());
+        for (int k = 1; k <= n; ++k) {
+            double x = Math.min(table.getXMax(), table.getXMin() + (table.getXMax() - table.getXMin()) * k / n);
+            double vk = table.value(x);
+            assertTrue(vk >= v);
+            v = vk;
+        }
+    }
+
+    @Test
+    public void testTables() {
+        MonotonicSplineFit fit = MonotonicSplineFunctionTest.fit(12, -1.0, 3.0);
+        PolynomialSplineFunction ps = fit.toPolynomialSplineFunction();
+        MonotonicSplineFunction f = fit.toFunction();
+        for (MonotonicSplineTable.Interpolation interp: MonotonicSplineTable.Interpolation.values()) {
+            for (MonotonicSplineTable.Precision prec: MonotonicSplineTable.Precision.values()) {
+                for (boolean direct: new boolean[] { false, true }) {
+                    MonotonicSplineTable table = MonotonicSplineTable.builder()
+                        .setSize(257)
+                        .setInterpolation(interp)
+                        .setPrecision(prec)
+                        .setDirect(direct)
+                        .build(f);
+                    assertEquals(257, table.getSize());
+                    assertEquals(direct, table.isDirect());
+                    testTable(table, ps);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testErrorBound() {
+        MonotonicSplineFunction f = MonotonicSplineFunctionTest.fit(12, 0.0, 1.0).toFunction();
+        double lin = MonotonicSplineTable.builder().setSize(100).build(f).getErrorBound();
+        double lin2 = MonotonicSplineTable.builder().setSize(200).build(f).getErrorBound();
+        double herm = MonotonicSplineTable.builder().setSize(100).setInterpolation(HERMITE).build(f).getErrorBound();
+        double flt = MonotonicSplineTable.builder().setSize(100).setInterpolation(HERMITE).setPrecision(FLOAT)
+            .build(f).getErrorBound();
+        assertTrue(lin > 0.0);
+        // linear error is O(h^2), Hermite is O(h^4) until it reaches the storage precision
+        assertTrue(lin2 < 0.3 * lin);
+        assertTrue(herm < 1e-3 * lin);
+        assertTrue(flt > herm);
+        assertTrue(flt < 1e-6);
+    }
+
+    @Test
+    public void testErrorBoundExact() {
+        MonotonicSplineFunction f = MonotonicSplineFunctionTest.fit(12, 0.0, 1.0).toFunction();
+        for (MonotonicSplineTable.Interpolation interp: MonotonicSplineTable.Interpolation.values()) {
+            // few cells, each spanning several spline knots, sampled far more finely than the cells
+            MonotonicSplineTable table = MonotonicSplineTable.builder().setSize(5).setInterpolation(interp).build(f);
+            final int n = 1000000;
+            double err = 0.0;
+            for (int k = 0; k <= n; ++k) {
+                double x = Math.min(f.getXMax(), f.getXMin() + (f.getXMax() - f.getXMin()) * k / n);
+                err = Math.max(err, Math.abs(table.value(x) - f.value(x)));
+            }
+            assertTrue(err <= table.getErrorBound());
+            assertTrue(err >= 0.999 * table.getErrorBound());
+        }
+    }
+
+    @Test
+    public void testDomain() {
+        MonotonicSplineTable table = MonotonicSplineTable.builder().build(
+            MonotonicSplineFunctionTest.fit(5, 0.0, 1.0).toFunction());
+        thrown.expect(OutOfRangeException.class);
+        table.value(1.0 + 1e-9);
+    }
+
+    @Test
+    public void testSize() {
+        MonotonicSplineTable.Builder b = MonotonicSplineTable.builder();
+        assertEquals(b, b.setSize(MonotonicSplineTable.SIZE_MAX));
+        thrown.expect(IllegalArgumentException.class);
+        b.setSize(MonotonicSplineTable.SIZE_MAX + 1);
+    }
+}
@@ -14,6 +14,7 @@ limitations under the License.
 package com.manyangled.snowball.analysis.interpolation;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 import org.junit.Rule;
@@ -178,6 +179,24 @@ public class MonotonicSplineTest {
         PolynomialSplineFunction s = interpolator.interpolate(x, y);
     }
 
+    @Test
+    public void testParallelAssembly() {
+        final int n = 1000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int j = 0; j < n; ++j) {
+            x[j] = (double)j / (double)(n - 1);
+            y[j] = x[j] * x[j] + 0.05 * Math.sin(50.0 * x[j]);
+        }
+        MonotonicSplineInterpolator interpolator = new MonotonicSplineInterpolator();
+        interpolator.setM(10);
+        PolynomialSplineFunction ref = interpolator.interpolate(x, y);
+        interpolator.addInterpolationOptions(new ParallelAssembly(new ForkJoinPool(4), 100));
+        PolynomialSplineFunction s = interpolator.interpolate(x, y);
+        testMonotone(s);
+        for (int j = 0; j < n; ++j) assertThat(s.value(x[j]), closeTo(ref.value(x[j]), 1e-6));
+    }
+
     @Test
     public void testReproData1() {
         // this setup caused an infinite loop on v0.2.0 of snowball and gibbous